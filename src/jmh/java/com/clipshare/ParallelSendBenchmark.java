@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import com.clipshare.netConnection.ConnectionPool;
+import com.clipshare.netConnection.PlainConnection;
+import com.clipshare.standin.StandInServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Sweeps the number of parallel connections used to send 8 MiB in 32 files over loopback links of
+ * increasing latency. The stand-in server adds the latency before each response and caps every
+ * connection at 20 MB/s, like a single flow on a shared wireless link, so more connections help
+ * only as long as the latency and the per-connection cap dominate. Each send is timed until the
+ * server has received all data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelSendBenchmark {
+
+  private static final int FILE_COUNT = 32;
+  private static final int FILE_SIZE = 262144;
+  private static final long LINK_RATE = 20000000;
+
+  @Param({"0", "5", "20", "50"})
+  public long latencyMs;
+
+  @Param({"1", "2", "4", "8"})
+  public int connections;
+
+  private StandInServer server;
+  private ConnectionPool pool;
+  private File sourceDir;
+  private File[] sourceFiles;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    this.server = new StandInServer(3, 3);
+    this.server.setLink(this.latencyMs, LINK_RATE);
+    this.pool =
+        new ConnectionPool(
+            () -> new PlainConnection(this.server.getAddress(), this.server.getPort()), 0);
+    this.sourceDir = Files.createTempDirectory("clipshare_bench").toFile();
+    this.sourceFiles = new File[FILE_COUNT];
+    byte[] data = new byte[FILE_SIZE];
+    new Random(1).nextBytes(data);
+    for (int i = 0; i < FILE_COUNT; i++) {
+      this.sourceFiles[i] = new File(this.sourceDir, "parallel_" + i + ".bin");
+      try (OutputStream out = new FileOutputStream(this.sourceFiles[i])) {
+        out.write(data);
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.pool.close();
+    this.server.close();
+    for (File file : this.sourceFiles) {
+      file.delete();
+    }
+    this.sourceDir.delete();
+  }
+
+  @Benchmark
+  public boolean sendFiles() {
+    long expected = this.server.getBytesReceived() + (long) FILE_COUNT * FILE_SIZE;
+    ParallelFileSender sender =
+        new ParallelFileSender(this.sourceFiles, this.pool, this.connections);
+    boolean sent = sender.send().isSuccess();
+    while (sent && this.server.getBytesReceived() < expected) {
+      Thread.onSpinWait();
+    }
+    return sent;
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import com.clipshare.netConnection.ConnectionProfile;
+import com.clipshare.netConnection.PlainConnection;
+import com.clipshare.platformUtils.Utils;
+import com.clipshare.standin.StandInServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares sending 1 MiB in 16 files with the default connection settings and with a connection
+ * profile tuned on the same link. The links are emulated by the stand-in server: lan has no
+ * shaping, wifi adds 5 ms per turn and caps the rate at 6 MB/s, and congested adds 40 ms per turn
+ * and caps the rate at 1 MB/s. The tuned profile is trained with a few sends before measuring.
+ * Each send is timed until the server has received all data, not only until the client has
+ * handed it to the socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConnectionProfileBenchmark {
+
+  private static final int FILE_COUNT = 16;
+  private static final int FILE_SIZE = 65536;
+  private static final int TRAINING_RUNS = 4;
+
+  @Param({"lan", "wifi", "congested"})
+  public String link;
+
+  @Param({"default", "tuned"})
+  public String settings;
+
+  private StandInServer server;
+  private File sourceDir;
+  private File[] sourceFiles;
+  private ConnectionProfile profile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    this.server = new StandInServer(3, 3);
+    switch (this.link) {
+      case "lan":
+        this.server.setLink(0, 0);
+        break;
+      case "wifi":
+        this.server.setLink(5, 6000000);
+        break;
+      case "congested":
+        this.server.setLink(40, 1000000);
+        break;
+      default:
+        throw new IllegalArgumentException(this.link);
+    }
+    this.sourceDir = Files.createTempDirectory("clipshare_bench").toFile();
+    this.sourceFiles = new File[FILE_COUNT];
+    byte[] data = new byte[FILE_SIZE];
+    new Random(1).nextBytes(data);
+    for (int i = 0; i < FILE_COUNT; i++) {
+      this.sourceFiles[i] = new File(this.sourceDir, "profile_" + i + ".bin");
+      try (OutputStream out = new FileOutputStream(this.sourceFiles[i])) {
+        out.write(data);
+      }
+    }
+    this.profile = new ConnectionProfile();
+    if ("tuned".equals(this.settings)) {
+      for (int i = 0; i < TRAINING_RUNS; i++) {
+        if (!this.sendFiles(this.profile)) throw new IOException("Training failed");
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.server.close();
+    for (File file : this.sourceFiles) {
+      file.delete();
+    }
+    this.sourceDir.delete();
+  }
+
+  @Benchmark
+  public boolean sendFiles() throws IOException {
+    return this.sendFiles("tuned".equals(this.settings) ? this.profile : new ConnectionProfile());
+  }
+
+  private boolean sendFiles(ConnectionProfile connectionProfile) throws IOException {
+    long expected = this.server.getBytesReceived() + (long) FILE_COUNT * FILE_SIZE;
+    Utils utils = new Utils(this.sourceFiles);
+    Proto proto =
+        ProtocolSelector.getProto(
+            new PlainConnection(this.server.getAddress(), this.server.getPort(), connectionProfile),
+            utils);
+    if (proto == null) throw new IOException("Negotiation failed");
+    boolean sent;
+    try {
+      sent = proto.protoMethods.sendFilesCommon(3);
+    } finally {
+      proto.protoMethods.close();
+      utils.close();
+    }
+    while (sent && this.server.getBytesReceived() < expected) {
+      Thread.onSpinWait();
+    }
+    return sent;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import com.clipshare.netConnection.PlainConnection;
+import com.clipshare.platformUtils.Utils;
+import com.clipshare.standin.StandInFile;
+import com.clipshare.standin.StandInServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures sending and receiving a batch of files with protocol version 3 over loopback. The
+ * distributions are: small, 1000 files of 4 KiB; mixed, 200 files of 1 KiB to 4 MiB spread
+ * log-uniformly; and large, 4 files of 32 MiB.
+ *
+ * <p>Received files are written to the working directory, as the client does, and deleted after
+ * each invocation. Their names start with a random prefix so that no existing file is touched.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileTransferBenchmark {
+
+  @Param({"small", "mixed", "large"})
+  public String distribution;
+
+  private StandInServer server;
+  private File sourceDir;
+  private File[] sourceFiles;
+  private List<StandInFile> served;
+  private String prefix;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    this.server = new StandInServer(3, 3);
+    this.prefix = "clipshare_bench_" + Long.toString(new Random().nextLong() & Long.MAX_VALUE, 36);
+    long[] sizes = sizes(this.distribution);
+    this.sourceDir = Files.createTempDirectory("clipshare_bench").toFile();
+    this.sourceFiles = new File[sizes.length];
+    this.served = new ArrayList<>(sizes.length);
+    byte[] buf = new byte[65536];
+    new Random(1).nextBytes(buf);
+    for (int i = 0; i < sizes.length; i++) {
+      String name = this.prefix + "_" + i + ".bin";
+      this.sourceFiles[i] = new File(this.sourceDir, name);
+      try (OutputStream out = new FileOutputStream(this.sourceFiles[i])) {
+        for (long left = sizes[i]; left > 0; left -= buf.length) {
+          out.write(buf, 0, (int) Math.min(left, buf.length));
+        }
+      }
+      this.served.add(StandInFile.file(name, sizes[i]));
+    }
+    this.server.setFiles(this.served);
+  }
+
+  private static long[] sizes(String distribution) {
+    long[] sizes;
+    switch (distribution) {
+      case "small":
+        sizes = new long[1000];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = 4096;
+        return sizes;
+      case "mixed":
+        Random rnd = new Random(42);
+        sizes = new long[200];
+        for (int i = 0; i < sizes.length; i++) {
+          sizes[i] = (long) Math.pow(2, 10 + rnd.nextDouble() * 12);
+        }
+        return sizes;
+      case "large":
+        sizes = new long[4];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = 33554432;
+        return sizes;
+      default:
+        throw new IllegalArgumentException(distribution);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.server.close();
+    for (File file : this.sourceFiles) {
+      file.delete();
+    }
+    this.sourceDir.delete();
+  }
+
+  @TearDown(Level.Invocation)
+  public void deleteReceived() {
+    for (StandInFile file : this.served) {
+      new File(file.getName()).delete();
+    }
+  }
+
+  @Benchmark
+  public boolean sendFiles() throws IOException {
+    Utils utils = new Utils(this.sourceFiles);
+    ProtoMethods methods = this.negotiate(utils);
+    try {
+      return methods.sendFilesCommon(3);
+    } finally {
+      methods.close();
+      utils.close();
+    }
+  }
+
+  @Benchmark
+  public boolean getFiles() throws IOException {
+    ProtoMethods methods = this.negotiate(new Utils());
+    try {
+      return methods.getFilesCommon(3);
+    } finally {
+      methods.close();
+    }
+  }
+
+  private ProtoMethods negotiate(Utils utils) throws IOException {
+    Proto proto =
+        ProtocolSelector.getProto(
+            new PlainConnection(this.server.getAddress(), this.server.getPort()), utils);
+    if (proto == null) throw new IOException("Negotiation failed");
+    return proto.protoMethods;
+  }
+}
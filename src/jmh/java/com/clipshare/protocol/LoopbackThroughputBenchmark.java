@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import com.clipshare.netConnection.PlainConnection;
+import com.clipshare.platformUtils.Utils;
+import com.clipshare.standin.StandInServer;
+import com.clipshare.standin.ThrottledUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares sending one large file over loopback with FileChannel.transferTo and with the buffered
+ * copy loop. The sizes are 1 GiB and 16 GiB, the largest file the protocol accepts. The files are
+ * sparse, so they take no disk space and are read from the page cache. Each send is timed until
+ * the server has received all data; the throughput is the file size divided by the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class LoopbackThroughputBenchmark {
+
+  @Param({"1073741824", "17179869184"})
+  public long fileSize;
+
+  @Param({"transferTo", "buffered"})
+  public String mode;
+
+  private StandInServer server;
+  private File sourceDir;
+  private File sourceFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    this.server = new StandInServer(3, 3);
+    this.sourceDir = Files.createTempDirectory("clipshare_bench").toFile();
+    this.sourceFile = new File(this.sourceDir, "large.bin");
+    try (RandomAccessFile file = new RandomAccessFile(this.sourceFile, "rw")) {
+      file.setLength(this.fileSize);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.server.close();
+    this.sourceFile.delete();
+    this.sourceDir.delete();
+  }
+
+  @Benchmark
+  public boolean sendFile() throws IOException {
+    long expected = this.server.getBytesReceived() + this.fileSize;
+    File[] files = {this.sourceFile};
+    // Without a file channel, the content is copied through the codec buffer
+    Utils utils =
+        "transferTo".equals(this.mode) ? new Utils(files) : new ThrottledUtils(files, 0, 0);
+    Proto proto =
+        ProtocolSelector.getProto(
+            new PlainConnection(this.server.getAddress(), this.server.getPort()), utils);
+    if (proto == null) throw new IOException("Negotiation failed");
+    boolean sent;
+    try {
+      proto.protoMethods.setPipelined(false);
+      sent = proto.protoMethods.sendFilesCommon(3);
+    } finally {
+      proto.protoMethods.close();
+      utils.close();
+    }
+    while (sent && this.server.getBytesReceived() < expected) {
+      Thread.onSpinWait();
+    }
+    return sent;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import com.clipshare.netConnection.PlainConnection;
+import com.clipshare.netConnection.ServerConnection;
+import com.clipshare.standin.StandInServer;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures ProtocolSelector.getProto on an already open loopback connection, with and without the
+ * negotiated version cached, against servers of different versions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NegotiationBenchmark {
+
+  @Param({"3", "2", "1"})
+  public int serverVersion;
+
+  @Param({"false", "true"})
+  public boolean cached;
+
+  private StandInServer server;
+  private ServerConnection connection;
+
+  @Setup(Level.Trial)
+  public void startServer() throws IOException {
+    this.server = new StandInServer(1, this.serverVersion);
+  }
+
+  @TearDown(Level.Trial)
+  public void stopServer() {
+    this.server.close();
+  }
+
+  @Setup(Level.Invocation)
+  public void connect() throws IOException {
+    if (this.cached) {
+      ProtocolCache.put(this.server.getAddress(), (byte) this.serverVersion);
+    } else {
+      ProtocolCache.remove(this.server.getAddress());
+    }
+    this.connection = new PlainConnection(this.server.getAddress(), this.server.getPort());
+  }
+
+  @TearDown(Level.Invocation)
+  public void disconnect() {
+    this.connection.close();
+  }
+
+  @Benchmark
+  public Proto getProto() throws IOException {
+    return ProtocolSelector.getProto(this.connection, null);
+  }
+}
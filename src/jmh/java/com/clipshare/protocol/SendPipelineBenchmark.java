@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import com.clipshare.platformUtils.Utils;
+import com.clipshare.standin.StandInServer;
+import com.clipshare.standin.ThrottledUtils;
+import com.clipshare.standin.WindowedConnection;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares sending 8 MiB in 16 files with reads and sends in turn and with reads overlapped with
+ * sends. The disks are stand-ins: hdd takes 8 ms to open a file and reads at 100 MB/s, and nfs
+ * takes 2 ms to open a file and reads at 40 MB/s. The links are emulated by the stand-in server:
+ * gigabit adds 1 ms per turn and caps the rate at 100 MB/s, and wifi adds 5 ms per turn and caps
+ * the rate at 20 MB/s. The socket buffers on both ends are set to the window size, since the
+ * megabytes the loopback interface allows would hold the whole payload. A large window already
+ * hides disk stalls shorter than the time the link takes to drain it. Each send is timed until
+ * the server has received all data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SendPipelineBenchmark {
+
+  private static final int FILE_COUNT = 16;
+  private static final int FILE_SIZE = 524288;
+
+  @Param({"hdd", "nfs"})
+  public String disk;
+
+  @Param({"gigabit", "wifi"})
+  public String link;
+
+  @Param({"4096", "65536"})
+  public int window;
+
+  @Param({"serial", "pipelined"})
+  public String mode;
+
+  private StandInServer server;
+  private File sourceDir;
+  private File[] sourceFiles;
+  private long openLatencyMs;
+  private long readRate;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    switch (this.disk) {
+      case "hdd":
+        this.openLatencyMs = 8;
+        this.readRate = 100000000;
+        break;
+      case "nfs":
+        this.openLatencyMs = 2;
+        this.readRate = 40000000;
+        break;
+      default:
+        throw new IllegalArgumentException(this.disk);
+    }
+    this.server = new StandInServer(3, 3);
+    this.server.setReceiveBufferSize(this.window);
+    switch (this.link) {
+      case "gigabit":
+        this.server.setLink(1, 100000000);
+        break;
+      case "wifi":
+        this.server.setLink(5, 20000000);
+        break;
+      default:
+        throw new IllegalArgumentException(this.link);
+    }
+    this.sourceDir = Files.createTempDirectory("clipshare_bench").toFile();
+    this.sourceFiles = new File[FILE_COUNT];
+    byte[] data = new byte[FILE_SIZE];
+    new Random(1).nextBytes(data);
+    for (int i = 0; i < FILE_COUNT; i++) {
+      this.sourceFiles[i] = new File(this.sourceDir, "pipeline_" + i + ".bin");
+      try (OutputStream out = new FileOutputStream(this.sourceFiles[i])) {
+        out.write(data);
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.server.close();
+    for (File file : this.sourceFiles) {
+      file.delete();
+    }
+    this.sourceDir.delete();
+  }
+
+  @Benchmark
+  public boolean sendFiles() throws IOException {
+    long expected = this.server.getBytesReceived() + (long) FILE_COUNT * FILE_SIZE;
+    Utils utils = new ThrottledUtils(this.sourceFiles, this.openLatencyMs, this.readRate);
+    Proto proto =
+        ProtocolSelector.getProto(
+            new WindowedConnection(this.server.getAddress(), this.server.getPort(), this.window),
+            utils);
+    if (proto == null) throw new IOException("Negotiation failed");
+    boolean sent;
+    try {
+      proto.protoMethods.setPipelined("pipelined".equals(this.mode));
+      sent = proto.protoMethods.sendFilesCommon(3);
+    } finally {
+      proto.protoMethods.close();
+      utils.close();
+    }
+    while (sent && this.server.getBytesReceived() < expected) {
+      Thread.onSpinWait();
+    }
+    return sent;
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.standin;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Applies latency, a bandwidth cap, and faults to the streams of one stand-in server connection.
+ * Latency is added once per turn, before the first byte of each response. The bandwidth cap
+ * applies to both directions together. An idle link does not save up more than 1 ms of
+ * transfer, so a sender that stalls cannot catch up at more than the capped rate.
+ */
+final class LinkShaper {
+
+  private static final long MAX_CREDIT_NANOS = 1000000;
+
+  private final Socket socket;
+  private final long latencyMs;
+  private final long bytesPerSecond;
+  private final StandInFault fault;
+  private long startNanos;
+  private long bytes;
+  private long paced;
+  private boolean newTurn;
+
+  LinkShaper(Socket socket, long latencyMs, long bytesPerSecond, StandInFault fault) {
+    this.socket = socket;
+    this.latencyMs = latencyMs;
+    this.bytesPerSecond = bytesPerSecond;
+    this.fault = fault;
+    this.startNanos = System.nanoTime();
+    this.bytes = 0;
+    this.paced = 0;
+    this.newTurn = true;
+  }
+
+  InputStream wrap(InputStream in) {
+    return new FilterInputStream(in) {
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return this.read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) transferred(read);
+        synchronized (LinkShaper.this) {
+          newTurn = true;
+        }
+        return read;
+      }
+    };
+  }
+
+  OutputStream wrap(OutputStream out) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        this.write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        boolean delay;
+        synchronized (LinkShaper.this) {
+          delay = newTurn && len > 0;
+          newTurn = false;
+        }
+        if (delay) sleep(latencyMs);
+        int fragment = len;
+        if (fault.type == StandInFault.Type.SHORT_WRITES) fragment = (int) fault.value;
+        while (len > 0) {
+          int count = Math.min(len, fragment);
+          out.write(b, off, count);
+          if (fault.type == StandInFault.Type.SHORT_WRITES) out.flush();
+          transferred(count);
+          off += count;
+          len -= count;
+        }
+      }
+    };
+  }
+
+  private void transferred(int count) throws IOException {
+    long total;
+    long dueNanos = 0;
+    synchronized (this) {
+      this.bytes += count;
+      total = this.bytes;
+      if (this.bytesPerSecond > 0) {
+        this.paced += count;
+        dueNanos = this.startNanos + this.paced * 1000000000L / this.bytesPerSecond;
+        long now = System.nanoTime();
+        if (now - dueNanos > MAX_CREDIT_NANOS) {
+          this.startNanos = now - MAX_CREDIT_NANOS;
+          this.paced = 0;
+          dueNanos = this.startNanos;
+        }
+      }
+    }
+    if (this.fault.type == StandInFault.Type.RESET_AFTER_BYTES && total >= this.fault.value) {
+      this.socket.setSoLinger(true, 0);
+      this.socket.close();
+      throw new IOException("Injected reset");
+    }
+    if (this.bytesPerSecond > 0) {
+      long waitNanos = dueNanos - System.nanoTime();
+      if (waitNanos > 0) sleep(waitNanos / 1000000);
+    }
+  }
+
+  private static void sleep(long ms) throws IOException {
+    if (ms <= 0) return;
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException ex) {
+      throw new InterruptedIOException();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.standin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * The far end of a loopback TCP connection that either discards everything it receives or sends a
+ * frame over and over. This is used to measure the protocol codec without any server logic.
+ */
+public final class LoopbackPeer implements Closeable {
+
+  private static final int BUF_SZ = 65536;
+
+  private final ServerSocket serverSocket;
+  private final byte[] frame;
+  private volatile Socket peer;
+
+  private LoopbackPeer(byte[] frame) throws IOException {
+    this.frame = frame;
+    this.serverSocket = new ServerSocket();
+    this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    Thread thread = new Thread(this::run, "loopback-peer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Creates a peer that reads and discards everything sent to it.
+   *
+   * @return peer waiting for a connection
+   * @throws IOException if the server socket cannot be opened
+   */
+  public static LoopbackPeer sink() throws IOException {
+    return new LoopbackPeer(null);
+  }
+
+  /**
+   * Creates a peer that sends the frame repeatedly, without gaps, until the connection is closed.
+   *
+   * @param frame bytes to repeat
+   * @return peer waiting for a connection
+   * @throws IOException if the server socket cannot be opened
+   */
+  public static LoopbackPeer source(byte[] frame) throws IOException {
+    return new LoopbackPeer(frame);
+  }
+
+  public InetAddress getAddress() {
+    return this.serverSocket.getInetAddress();
+  }
+
+  public int getPort() {
+    return this.serverSocket.getLocalPort();
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.serverSocket.close();
+      Socket socket = this.peer;
+      if (socket != null) socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  private void run() {
+    try (Socket socket = this.serverSocket.accept()) {
+      this.peer = socket;
+      if (this.frame == null) {
+        InputStream in = socket.getInputStream();
+        byte[] buf = new byte[BUF_SZ];
+        while (in.read(buf) >= 0) {}
+      } else {
+        OutputStream out = socket.getOutputStream();
+        int repeat = Math.max(1, BUF_SZ / this.frame.length);
+        byte[] buf = new byte[repeat * this.frame.length];
+        for (int i = 0; i < repeat; i++) {
+          System.arraycopy(this.frame, 0, buf, i * this.frame.length, this.frame.length);
+        }
+        while (true) {
+          out.write(buf);
+        }
+      }
+    } catch (IOException | RuntimeException ignored) {
+    }
+  }
+}
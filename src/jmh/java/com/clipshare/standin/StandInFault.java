@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.standin;
+
+/** A fault that StandInServer injects into every connection. */
+public final class StandInFault {
+
+  enum Type {
+    NONE,
+    RESET_AFTER_BYTES,
+    SHORT_WRITES,
+    BAD_VERSION_REPLY,
+    BAD_METHOD_STATUS
+  }
+
+  public static final StandInFault NONE = new StandInFault(Type.NONE, 0);
+
+  final Type type;
+  final long value;
+
+  private StandInFault(Type type, long value) {
+    this.type = type;
+    this.value = value;
+  }
+
+  /**
+   * Resets the connection, with a TCP RST, once the given number of bytes have been sent and
+   * received in total on it.
+   *
+   * @param bytes number of bytes after which the connection is reset
+   * @return fault
+   */
+  public static StandInFault resetAfter(long bytes) {
+    return new StandInFault(Type.RESET_AFTER_BYTES, bytes);
+  }
+
+  /**
+   * Sends data in separately flushed fragments of at most the given size, so that the client sees
+   * short reads.
+   *
+   * @param fragmentSize maximum number of bytes per fragment
+   * @return fault
+   */
+  public static StandInFault shortWrites(int fragmentSize) {
+    return new StandInFault(Type.SHORT_WRITES, Math.max(1, fragmentSize));
+  }
+
+  /**
+   * Replies to the protocol version proposed by the client with the given byte.
+   *
+   * @param status byte to send instead of the negotiation status
+   * @return fault
+   */
+  public static StandInFault badVersionReply(byte status) {
+    return new StandInFault(Type.BAD_VERSION_REPLY, status);
+  }
+
+  /**
+   * Replies to every method request with the given status byte.
+   *
+   * @param status byte to send instead of the method status
+   * @return fault
+   */
+  public static StandInFault badMethodStatus(byte status) {
+    return new StandInFault(Type.BAD_METHOD_STATUS, status);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.standin;
+
+/** A file or directory served by StandInServer. File content is generated, not stored. */
+public final class StandInFile {
+
+  private final String name;
+  private final long size;
+
+  private StandInFile(String name, long size) {
+    this.name = name;
+    this.size = size;
+  }
+
+  /**
+   * Creates a file entry.
+   *
+   * @param name path of the file, using '/' as the separator
+   * @param size size of the file in bytes
+   * @return file entry
+   */
+  public static StandInFile file(String name, long size) {
+    return new StandInFile(name, size);
+  }
+
+  /**
+   * Creates a leaf directory entry, which is sent only with protocol version 3.
+   *
+   * @param name path of the directory, using '/' as the separator
+   * @return directory entry
+   */
+  public static StandInFile directory(String name) {
+    return new StandInFile(name, -1);
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public long getSize() {
+    return this.size;
+  }
+
+  public boolean isDirectory() {
+    return this.size < 0;
+  }
+}
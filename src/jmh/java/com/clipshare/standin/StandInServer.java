@@ -0,0 +1,481 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.standin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ClipShare server stand-in that runs in the same process and listens on the loopback
+ * interface. It implements the server side of protocol versions 1 to 3 as used by the client: text,
+ * files and directories, images, screenshots with display selection, and info. Each connection can
+ * be shaped with latency and a bandwidth cap, and faults can be injected, so that the client can be
+ * tested and measured without a real server or network.
+ */
+public class StandInServer implements Closeable {
+
+  private static final byte PROTOCOL_SUPPORTED = 1;
+  private static final byte PROTOCOL_OBSOLETE = 2;
+  private static final byte PROTOCOL_UNKNOWN = 3;
+
+  private static final byte GET_TEXT = 1;
+  private static final byte SEND_TEXT = 2;
+  private static final byte GET_FILE = 3;
+  private static final byte SEND_FILE = 4;
+  private static final byte GET_IMAGE = 5;
+  private static final byte GET_COPIED_IMAGE = 6;
+  private static final byte GET_SCREENSHOT = 7;
+  private static final byte INFO = 125;
+
+  private static final byte STATUS_OK = 1;
+  private static final byte STATUS_NO_DATA = 2;
+  private static final byte STATUS_UNKNOWN_METHOD = 3;
+
+  private static final int BUF_SZ = 65536;
+  private static final byte[] CONTENT = new byte[BUF_SZ];
+
+  static {
+    for (int i = 0; i < CONTENT.length; i++) {
+      CONTENT[i] = (byte) (i * 31 + 7);
+    }
+  }
+
+  private final int minVersion;
+  private final int maxVersion;
+  private final ServerSocket serverSocket;
+  private final ExecutorService executor;
+  private final Set<Socket> clients;
+  private final AtomicLong bytesReceived;
+  private final List<StandInFile> receivedFiles;
+  private volatile byte[] text;
+  private volatile String receivedText;
+  private volatile List<StandInFile> files;
+  private volatile long copiedImageSize;
+  private volatile long screenshotSize;
+  private volatile int displays;
+  private volatile long latencyMs;
+  private volatile long bytesPerSecond;
+  private volatile StandInFault fault;
+
+  /**
+   * Starts a server on an ephemeral loopback port.
+   *
+   * @param minVersion lowest protocol version accepted
+   * @param maxVersion highest protocol version accepted
+   * @throws IOException if the server socket cannot be opened
+   */
+  public StandInServer(int minVersion, int maxVersion) throws IOException {
+    this.minVersion = minVersion;
+    this.maxVersion = maxVersion;
+    this.clients = ConcurrentHashMap.newKeySet();
+    this.bytesReceived = new AtomicLong();
+    this.text = "ClipShare".getBytes(StandardCharsets.UTF_8);
+    this.files = Collections.emptyList();
+    this.receivedFiles = new CopyOnWriteArrayList<>();
+    this.copiedImageSize = 0;
+    this.screenshotSize = 1048576;
+    this.displays = 1;
+    this.latencyMs = 0;
+    this.bytesPerSecond = 0;
+    this.fault = StandInFault.NONE;
+    this.serverSocket = new ServerSocket();
+    this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+    this.executor =
+        Executors.newCachedThreadPool(
+            r -> {
+              Thread thread = new Thread(r, "stand-in-server");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.executor.execute(this::acceptLoop);
+  }
+
+  public StandInServer() throws IOException {
+    this(1, 3);
+  }
+
+  public InetAddress getAddress() {
+    return this.serverSocket.getInetAddress();
+  }
+
+  public int getPort() {
+    return this.serverSocket.getLocalPort();
+  }
+
+  /**
+   * Sets the text returned for get text requests.
+   *
+   * @param text copied text or null if nothing is copied
+   */
+  public void setText(String text) {
+    this.text = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  public String getReceivedText() {
+    return this.receivedText;
+  }
+
+  /**
+   * Sets the files returned for get file requests.
+   *
+   * @param files copied files and directories
+   */
+  public void setFiles(List<StandInFile> files) {
+    this.files = files;
+  }
+
+  /**
+   * Gets the files and directories received from clients so far, with their sizes.
+   *
+   * @return received entries in the order they were received
+   */
+  public List<StandInFile> getReceivedFiles() {
+    return Collections.unmodifiableList(this.receivedFiles);
+  }
+
+  /**
+   * Sets the size of the copied image.
+   *
+   * @param size size in bytes, or 0 if no image is copied
+   */
+  public void setCopiedImageSize(long size) {
+    this.copiedImageSize = size;
+  }
+
+  /**
+   * Sets the size of screenshots and the number of displays that can be selected.
+   *
+   * @param size size of a screenshot in bytes
+   * @param displays number of displays, numbered from 1. Display 0 selects the default one.
+   */
+  public void setScreenshot(long size, int displays) {
+    this.screenshotSize = size;
+    this.displays = displays;
+  }
+
+  /**
+   * Sets the link shaping applied to connections accepted after this call.
+   *
+   * @param latencyMs delay before the first byte of each response, in milliseconds
+   * @param bytesPerSecond cap on bytes sent and received per second, or 0 for no cap
+   */
+  public void setLink(long latencyMs, long bytesPerSecond) {
+    this.latencyMs = latencyMs;
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * Sets the receive buffer size of connections accepted after this call. A small buffer limits
+   * the data in flight to what a real link of the shaped rate would hold, instead of the megabytes
+   * the loopback interface allows.
+   *
+   * @param bytes receive buffer size in bytes
+   * @throws IOException if the buffer size cannot be set
+   */
+  public void setReceiveBufferSize(int bytes) throws IOException {
+    this.serverSocket.setReceiveBufferSize(bytes);
+  }
+
+  /**
+   * Sets the fault injected into connections accepted after this call.
+   *
+   * @param fault fault to inject, or StandInFault.NONE
+   */
+  public void setFault(StandInFault fault) {
+    this.fault = fault == null ? StandInFault.NONE : fault;
+  }
+
+  /**
+   * Gets the number of file content bytes received from clients so far.
+   *
+   * @return bytes received
+   */
+  public long getBytesReceived() {
+    return this.bytesReceived.get();
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.serverSocket.close();
+    } catch (IOException ignored) {
+    }
+    for (Socket client : this.clients) {
+      try {
+        client.close();
+      } catch (IOException ignored) {
+      }
+    }
+    this.executor.shutdownNow();
+  }
+
+  private void acceptLoop() {
+    while (!this.serverSocket.isClosed()) {
+      try {
+        Socket client = this.serverSocket.accept();
+        this.clients.add(client);
+        this.executor.execute(() -> this.serve(client));
+      } catch (IOException | RuntimeException ignored) {
+      }
+    }
+  }
+
+  private void serve(Socket client) {
+    StandInFault connectionFault = this.fault;
+    LinkShaper shaper =
+        new LinkShaper(client, this.latencyMs, this.bytesPerSecond, connectionFault);
+    try {
+      if (connectionFault.type == StandInFault.Type.SHORT_WRITES) client.setTcpNoDelay(true);
+      DataInputStream in =
+          new DataInputStream(
+              new BufferedInputStream(shaper.wrap(client.getInputStream()), BUF_SZ));
+      DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(shaper.wrap(client.getOutputStream()), BUF_SZ));
+      int version = this.negotiate(in, out, connectionFault);
+      if (version > 0) {
+        byte method = in.readByte();
+        if (connectionFault.type == StandInFault.Type.BAD_METHOD_STATUS) {
+          out.writeByte((byte) connectionFault.value);
+        } else {
+          this.serveMethod(version, method, in, out);
+        }
+      }
+      out.flush();
+    } catch (IOException | RuntimeException ignored) {
+    } finally {
+      this.clients.remove(client);
+      try {
+        client.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private int negotiate(DataInputStream in, DataOutputStream out, StandInFault fault)
+      throws IOException {
+    int version = in.readUnsignedByte();
+    if (fault.type == StandInFault.Type.BAD_VERSION_REPLY) {
+      out.writeByte((byte) fault.value);
+      return 0;
+    }
+    if (version >= this.minVersion && version <= this.maxVersion) {
+      out.writeByte(PROTOCOL_SUPPORTED);
+      out.flush();
+      return version;
+    }
+    if (version < this.minVersion) {
+      out.writeByte(PROTOCOL_OBSOLETE);
+      return 0;
+    }
+    out.writeByte(PROTOCOL_UNKNOWN);
+    out.writeByte(this.maxVersion);
+    out.flush();
+    version = in.readUnsignedByte();
+    if (version < this.minVersion || version > this.maxVersion) return 0;
+    return version;
+  }
+
+  /**
+   * Serves one method. Subclasses may override this to add methods.
+   *
+   * @param version negotiated protocol version
+   * @param method method code sent by the client
+   * @param in stream from the client
+   * @param out stream to the client
+   * @throws IOException on connection error
+   */
+  protected void serveMethod(int version, byte method, DataInputStream in, DataOutputStream out)
+      throws IOException {
+    switch (method) {
+      case GET_TEXT:
+        this.sendText(out);
+        return;
+      case SEND_TEXT:
+        out.writeByte(STATUS_OK);
+        out.flush();
+        this.receivedText = new String(readBytes(in), StandardCharsets.UTF_8);
+        return;
+      case GET_FILE:
+        this.sendFiles(version, out);
+        return;
+      case SEND_FILE:
+        out.writeByte(STATUS_OK);
+        out.flush();
+        this.receiveFiles(version, in);
+        return;
+      case GET_IMAGE:
+        long copied = this.copiedImageSize;
+        out.writeByte(STATUS_OK);
+        this.sendImage(out, copied > 0 ? copied : this.screenshotSize);
+        return;
+      case GET_COPIED_IMAGE:
+        if (version < 3) break;
+        long size = this.copiedImageSize;
+        if (size <= 0) {
+          out.writeByte(STATUS_NO_DATA);
+          return;
+        }
+        out.writeByte(STATUS_OK);
+        this.sendImage(out, size);
+        return;
+      case GET_SCREENSHOT:
+        if (version < 3) break;
+        out.writeByte(STATUS_OK);
+        out.flush();
+        long display = in.readLong();
+        if (display < 0 || display > this.displays) {
+          out.writeByte(STATUS_NO_DATA);
+          return;
+        }
+        out.writeByte(STATUS_OK);
+        this.sendImage(out, this.screenshotSize);
+        return;
+      case INFO:
+        out.writeByte(STATUS_OK);
+        writeBytes(out, "clip_share".getBytes(StandardCharsets.UTF_8));
+        return;
+      default:
+        break;
+    }
+    out.writeByte(STATUS_UNKNOWN_METHOD);
+  }
+
+  private void sendImage(DataOutputStream out, long size) throws IOException {
+    out.writeLong(size);
+    writeContent(out, size);
+  }
+
+  private void sendText(DataOutputStream out) throws IOException {
+    byte[] data = this.text;
+    if (data == null) {
+      out.writeByte(STATUS_NO_DATA);
+      return;
+    }
+    out.writeByte(STATUS_OK);
+    writeBytes(out, data);
+  }
+
+  private void sendFiles(int version, DataOutputStream out) throws IOException {
+    List<StandInFile> entries = this.files;
+    int count = 0;
+    for (StandInFile entry : entries) {
+      if (isServed(version, entry)) count++;
+    }
+    if (count == 0) {
+      out.writeByte(STATUS_NO_DATA);
+      return;
+    }
+    out.writeByte(STATUS_OK);
+    out.writeLong(count);
+    for (StandInFile entry : entries) {
+      if (!isServed(version, entry)) continue;
+      writeBytes(out, entry.getName().getBytes(StandardCharsets.UTF_8));
+      out.writeLong(entry.getSize());
+      writeContent(out, entry.getSize());
+    }
+  }
+
+  private static boolean isServed(int version, StandInFile entry) {
+    if (entry.isDirectory()) return version >= 3;
+    return version >= 2 || !entry.getName().contains("/");
+  }
+
+  private void receiveFiles(int version, DataInputStream in) throws IOException {
+    long count = version == 1 ? 1 : in.readLong();
+    byte[] buf = new byte[BUF_SZ];
+    for (long i = 0; i < count; i++) {
+      String name = new String(readBytes(in), StandardCharsets.UTF_8);
+      long size = in.readLong();
+      this.receivedFiles.add(StandInFile.file(name, size));
+      while (size > 0) {
+        int read = in.read(buf, 0, (int) Math.min(size, BUF_SZ));
+        if (read < 0) throw new EOFException();
+        size -= read;
+        this.bytesReceived.addAndGet(read);
+      }
+    }
+  }
+
+  /**
+   * Writes generated content of the given size.
+   *
+   * @param out stream to the client
+   * @param size number of bytes to write
+   * @throws IOException on connection error
+   */
+  protected static void writeContent(DataOutputStream out, long size) throws IOException {
+    while (size > 0) {
+      int chunk = (int) Math.min(size, CONTENT.length);
+      out.write(CONTENT, 0, chunk);
+      size -= chunk;
+    }
+  }
+
+  /**
+   * Writes a length-prefixed byte sequence.
+   *
+   * @param out stream to the client
+   * @param data bytes to write
+   * @throws IOException on connection error
+   */
+  protected static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+    out.writeLong(data.length);
+    out.write(data);
+  }
+
+  /**
+   * Reads a length-prefixed byte sequence.
+   *
+   * @param in stream from the client
+   * @return bytes read
+   * @throws IOException on connection error or if the length is invalid
+   */
+  protected static byte[] readBytes(DataInputStream in) throws IOException {
+    long size = in.readLong();
+    if (size < 0 || size > 16777216) throw new IOException("Invalid length");
+    byte[] data = new byte[(int) size];
+    in.readFully(data);
+    return data;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.standin;
+
+import com.clipshare.platformUtils.Utils;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Utils whose files are read as if from a slow disk. Each file waits for the open latency before
+ * its first read, and reads are capped at the given rate. A disk left idle while the sender is busy
+ * does not save up more than 1 ms of reading. No file channel is offered, so the content is
+ * always copied through the streams.
+ */
+public class ThrottledUtils extends Utils {
+
+  private static final long MAX_CREDIT_NANOS = 1000000;
+
+  private final long openLatencyMs;
+  private final long bytesPerSecond;
+  private InputStream source;
+  private InputStream throttled;
+
+  /**
+   * Creates a file source with a stand-in disk.
+   *
+   * @param files files and directories to send
+   * @param openLatencyMs time taken to open and stat each file, in milliseconds
+   * @param bytesPerSecond read rate of each file, or 0 for no cap
+   */
+  public ThrottledUtils(File[] files, long openLatencyMs, long bytesPerSecond) {
+    super(files);
+    this.openLatencyMs = openLatencyMs;
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  @Override
+  public InputStream getFileInStream() {
+    InputStream in = super.getFileInStream();
+    if (in == null) return null;
+    if (in != this.source) {
+      this.source = in;
+      this.throttled = new ThrottledStream(in);
+    }
+    return this.throttled;
+  }
+
+  @Override
+  public FileChannel getFileChannel() {
+    return null;
+  }
+
+  private final class ThrottledStream extends FilterInputStream {
+    private long startNanos;
+    private long bytes;
+
+    ThrottledStream(InputStream in) {
+      super(in);
+      this.startNanos = -1;
+      this.bytes = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return this.read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (this.startNanos < 0) {
+        sleep(openLatencyMs);
+        this.startNanos = System.nanoTime();
+      }
+      int read = super.read(b, off, len);
+      if (read > 0 && bytesPerSecond > 0) {
+        this.bytes += read;
+        long dueNanos = this.startNanos + this.bytes * 1000000000L / bytesPerSecond;
+        long now = System.nanoTime();
+        if (now - dueNanos > MAX_CREDIT_NANOS) {
+          this.startNanos = now - MAX_CREDIT_NANOS;
+          this.bytes = 0;
+        } else if (dueNanos > now) {
+          sleep((dueNanos - now) / 1000000);
+        }
+      }
+      return read;
+    }
+  }
+
+  private static void sleep(long ms) throws IOException {
+    if (ms <= 0) return;
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException ex) {
+      throw new InterruptedIOException();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.standin;
+
+import com.clipshare.netConnection.ConnectionProfile;
+import com.clipshare.netConnection.ServerConnection;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Plain connection whose socket buffers are set to a fixed window before connecting, so that no
+ * more data is in flight than on a real link with that window. The kernel allows megabytes on the
+ * loopback interface, and a buffer shrunk after connecting can stall the connection.
+ */
+public final class WindowedConnection extends ServerConnection {
+
+  /**
+   * Connects to a stand-in server.
+   *
+   * @param address address of the server
+   * @param port port of the server
+   * @param window size of the send and receive buffers in bytes
+   * @throws IOException on socket connection error
+   */
+  public WindowedConnection(InetAddress address, int port, int window) throws IOException {
+    super(SocketChannel.open().socket(), new ConnectionProfile());
+    try {
+      this.socket.setSendBufferSize(window);
+      this.socket.setReceiveBufferSize(window);
+      this.socket.connect(new InetSocketAddress(address, port));
+    } catch (IOException ex) {
+      this.close();
+      throw ex;
+    }
+    this.inStream = this.socket.getInputStream();
+    this.outStream =
+        new BufferedOutputStream(this.meter(this.socket.getOutputStream()), WRITE_BUFFER_SIZE);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import java.net.InetAddress;
+import java.util.Locale;
+
+/** A server found by discovery. */
+final class DiscoveredServer {
+
+  private final InetAddress address;
+  private final String interfaceName;
+  private final long rttNanos;
+
+  DiscoveredServer(InetAddress address, String interfaceName, long rttNanos) {
+    this.address = address;
+    this.interfaceName = interfaceName;
+    this.rttNanos = rttNanos;
+  }
+
+  public InetAddress getAddress() {
+    return this.address;
+  }
+
+  /**
+   * Gets the name of the local network interface through which the server was found.
+   *
+   * @return interface name
+   */
+  public String getInterfaceName() {
+    return this.interfaceName;
+  }
+
+  /**
+   * Gets the round trip time measured while probing the server.
+   *
+   * @return round trip time in nanoseconds or -1 if not measured
+   */
+  public long getRttNanos() {
+    return this.rttNanos;
+  }
+
+  @Override
+  public String toString() {
+    String rtt =
+        this.rttNanos >= 0 ? String.format(Locale.ROOT, "%.1f ms", this.rttNanos / 1e6) : "-";
+    return this.address.getHostAddress() + " (" + this.interfaceName + ", " + rtt + ")";
+  }
+}
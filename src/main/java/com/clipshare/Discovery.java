@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A running discovery started by {@link ServerFinder#discover}. Servers are passed to the listener
+ * as they are found, each address once, until the deadline passes or the discovery is cancelled.
+ *
+ * <p>The discovery keeps count of its scanner tasks, so that {@link #await} returns only when all
+ * of them have finished, even though they run on an executor shared with other discoveries.
+ * Cancelling wakes up the scanners through the callbacks they register, so no thread is
+ * interrupted.
+ */
+final class Discovery {
+
+  private final DiscoveryListener listener;
+  private final long deadline;
+  private final Set<InetAddress> found;
+  private final List<String> reports;
+  private final List<Runnable> cancelCallbacks;
+  private final Object taskLock;
+  private int pendingTasks;
+  private volatile boolean cancelled;
+
+  Discovery(DiscoveryListener listener, long deadline) {
+    this.listener = listener;
+    this.deadline = deadline;
+    this.found = new HashSet<>(4);
+    this.reports = new ArrayList<>(4);
+    this.cancelCallbacks = new CopyOnWriteArrayList<>();
+    this.taskLock = new Object();
+  }
+
+  /**
+   * Wraps a scanner task so that the discovery knows when it finishes. The task is skipped if the
+   * discovery is already done when it gets to run. Every wrapped task must be run or passed to
+   * {@link #taskFinished()}.
+   *
+   * @param task scanner task
+   * @return task to submit to the executor
+   */
+  Runnable track(Runnable task) {
+    synchronized (this.taskLock) {
+      this.pendingTasks++;
+    }
+    return () -> {
+      try {
+        if (!this.isDone()) task.run();
+      } finally {
+        this.taskFinished();
+      }
+    };
+  }
+
+  /** Marks a tracked task as finished, for tasks that could not be run. */
+  void taskFinished() {
+    synchronized (this.taskLock) {
+      this.pendingTasks--;
+      this.taskLock.notifyAll();
+    }
+  }
+
+  /**
+   * Registers a callback to be run when the discovery is cancelled, such as waking up a selector.
+   *
+   * @param callback callback to run
+   */
+  void addCancelCallback(Runnable callback) {
+    this.cancelCallbacks.add(callback);
+    if (this.cancelled) callback.run();
+  }
+
+  void removeCancelCallback(Runnable callback) {
+    this.cancelCallbacks.remove(callback);
+  }
+
+  /**
+   * Reports a server found by one of the scanners. Ignored if the address was already reported or
+   * if the discovery is done.
+   *
+   * @param address address of the server
+   * @param interfaceName name of the local interface through which it was found
+   * @param rttNanos measured round trip time in nanoseconds or -1
+   */
+  synchronized void report(InetAddress address, String interfaceName, long rttNanos) {
+    if (this.isDone() || !this.found.add(address)) return;
+    try {
+      this.listener.serverFound(new DiscoveredServer(address, interfaceName, rttNanos));
+    } catch (RuntimeException ignored) {
+    }
+  }
+
+  synchronized void addReport(String report) {
+    this.reports.add(report);
+  }
+
+  /**
+   * Gets the summaries of the scans that have finished, one line each.
+   *
+   * @return scan summaries
+   */
+  public synchronized List<String> getReports() {
+    return new ArrayList<>(this.reports);
+  }
+
+  long getDeadline() {
+    return this.deadline;
+  }
+
+  /**
+   * Checks whether the scanners should stop.
+   *
+   * @return true if the discovery was cancelled or the deadline has passed
+   */
+  boolean isDone() {
+    return this.cancelled || System.nanoTime() - this.deadline >= 0;
+  }
+
+  /** Stops the discovery. Scanners stop soon after, and no more servers are reported. */
+  public void cancel() {
+    this.cancelled = true;
+    for (Runnable callback : this.cancelCallbacks) {
+      try {
+        callback.run();
+      } catch (RuntimeException ignored) {
+      }
+    }
+  }
+
+  /**
+   * Waits for all scanners to finish.
+   *
+   * @param timeoutMs maximum time to wait in milliseconds
+   * @return true if all scanners finished or false if the wait timed out
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean await(long timeoutMs) throws InterruptedException {
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    synchronized (this.taskLock) {
+      while (this.pendingTasks > 0) {
+        long remaining = end - System.nanoTime();
+        if (remaining <= 0) return false;
+        TimeUnit.NANOSECONDS.timedWait(this.taskLock, remaining);
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import com.clipshare.netConnection.ConnectionProfile;
+import com.clipshare.protocol.ProtocolSelector;
+import com.clipshare.protocol.ServerProbe;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Servers used recently, saved to a file so that later sessions can connect without a scan and
+ * with tuned connection settings. There is at most one server for each network, which is
+ * identified by the local interface name and the subnet address. An entry is dropped when it has
+ * not been used for 30 days or when the server did not answer 3 times in a row.
+ *
+ * <p>Each line of the file has the fields network, address, protocol version, last seen time in
+ * milliseconds since the epoch, failure count, and the connection profile: smoothed round trip
+ * time and its deviation in microseconds, throughput in bytes per second and connect timeout in
+ * milliseconds. The fields are separated by tabs. Unknown values are -1.
+ */
+final class KnownServers {
+
+  private static final long MAX_AGE_MS = 30L * 24 * 3600 * 1000;
+  private static final int MAX_FAILURES = 3;
+  private static final int MAX_ENTRIES = 32;
+
+  private final File file;
+  private final Map<String, Entry> entries;
+
+  private KnownServers(File file) {
+    this.file = file;
+    this.entries = new LinkedHashMap<>(4);
+  }
+
+  /**
+   * Loads the known servers from a file. Invalid and expired entries are skipped. A missing or
+   * unreadable file gives an empty list.
+   *
+   * @param file file to load from and to save to
+   * @return known servers
+   */
+  static KnownServers load(File file) {
+    KnownServers known = new KnownServers(file);
+    if (!file.isFile()) return known;
+    long now = System.currentTimeMillis();
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Entry entry = Entry.parse(line);
+        if (entry != null && !entry.isExpired(now)) known.entries.put(entry.network, entry);
+      }
+    } catch (IOException | RuntimeException ignored) {
+    }
+    return known;
+  }
+
+  /** Saves the entries to the file. Errors are ignored, since the file is only a cache. */
+  void save() {
+    File dir = this.file.getAbsoluteFile().getParentFile();
+    try {
+      if (dir != null) Files.createDirectories(dir.toPath());
+      File tmp = new File(this.file.getPath() + ".tmp");
+      try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+        synchronized (this) {
+          for (Entry entry : this.entries.values()) {
+            writer.write(entry.format());
+            writer.write('\n');
+          }
+        }
+      }
+      Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException ignored) {
+    }
+  }
+
+  /**
+   * Probes the known servers of the networks this host is connected to, all in parallel. Servers
+   * that answer are updated, and those that do not answer get a failure counted. The protocol
+   * version saved for the selected server is passed to the protocol cache.
+   *
+   * @param port port of the servers
+   * @param timeoutMs timeout for the probes in milliseconds
+   * @return the most recently used server that answered, or null if none answered
+   */
+  DiscoveredServer probe(int port, int timeoutMs) {
+    List<Entry> candidates = new ArrayList<>(2);
+    synchronized (this) {
+      for (String network : currentNetworks()) {
+        Entry entry = this.entries.get(network);
+        if (entry != null) candidates.add(entry);
+      }
+    }
+    if (candidates.isEmpty()) return null;
+    candidates.sort(Comparator.comparingLong((Entry entry) -> entry.lastSeen).reversed());
+    List<InetAddress> addresses = new ArrayList<>(candidates.size());
+    for (Entry entry : candidates) {
+      addresses.add(entry.address);
+    }
+    List<ServerProbe> probes = ServerProbe.probeAll(addresses, port, timeoutMs);
+    DiscoveredServer selected = null;
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      for (int i = 0; i < probes.size(); i++) {
+        ServerProbe probe = probes.get(i);
+        Entry entry = candidates.get(i);
+        if (!probe.isServer()) {
+          entry.failures++;
+          if (entry.isExpired(now)) this.entries.remove(entry.network);
+          continue;
+        }
+        entry.failures = 0;
+        entry.lastSeen = now;
+        entry.profile.recordRtt(probe.getRttNanos());
+        if (selected == null) {
+          String interfaceName = entry.network.substring(0, entry.network.indexOf(' '));
+          selected = new DiscoveredServer(entry.address, interfaceName, probe.getRttNanos());
+          ProtocolSelector.setCachedVersion(entry.address, entry.version);
+        }
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Gets the addresses of all known servers, most recently used first.
+   *
+   * @return server addresses
+   */
+  synchronized List<InetAddress> getAddresses() {
+    List<Entry> sorted = new ArrayList<>(this.entries.values());
+    sorted.sort(Comparator.comparingLong((Entry entry) -> entry.lastSeen).reversed());
+    List<InetAddress> addresses = new ArrayList<>(sorted.size());
+    for (Entry entry : sorted) {
+      addresses.add(entry.address);
+    }
+    return addresses;
+  }
+
+  /**
+   * Gets the saved connection profile of a server. A server that is not known gets a profile with
+   * the default settings, which is saved once a session with it is recorded.
+   *
+   * @param address address of the server
+   * @return profile of the server
+   */
+  synchronized ConnectionProfile getProfile(InetAddress address) {
+    Entry entry = this.entries.get(networkOf(address));
+    if (entry != null && entry.address.equals(address)) return entry.profile;
+    return new ConnectionProfile();
+  }
+
+  /**
+   * Records a successful session with a server. Ignored if the server is not on a network this
+   * host is directly connected to.
+   *
+   * @param address address of the server
+   * @param version protocol version negotiated, or 0 if not known
+   * @param profile connection profile used for the session, or null to keep the saved one
+   */
+  synchronized void recordSuccess(InetAddress address, int version, ConnectionProfile profile) {
+    String network = networkOf(address);
+    if (network == null) return;
+    Entry entry = this.entries.remove(network);
+    if (entry == null || !entry.address.equals(address)) {
+      entry = new Entry(network, address, new ConnectionProfile());
+    }
+    if (version > 0) entry.version = version;
+    if (profile != null) entry.profile = profile;
+    entry.lastSeen = System.currentTimeMillis();
+    entry.failures = 0;
+    this.entries.put(network, entry);
+    while (this.entries.size() > MAX_ENTRIES) {
+      String oldest = null;
+      long oldestSeen = Long.MAX_VALUE;
+      for (Entry e : this.entries.values()) {
+        if (e.lastSeen < oldestSeen) {
+          oldestSeen = e.lastSeen;
+          oldest = e.network;
+        }
+      }
+      this.entries.remove(oldest);
+    }
+  }
+
+  /**
+   * Gets the IPv4 networks this host is connected to.
+   *
+   * @return keys of the networks
+   */
+  private static Set<String> currentNetworks() {
+    Set<String> networks = new HashSet<>(4);
+    try {
+      for (NetworkInterface netIF : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+        if (netIF.isLoopback() || !netIF.isUp()) continue;
+        for (InterfaceAddress intAddress : netIF.getInterfaceAddresses()) {
+          String key = networkKey(netIF.getName(), intAddress);
+          if (key != null) networks.add(key);
+        }
+      }
+    } catch (IOException | RuntimeException ignored) {
+    }
+    return networks;
+  }
+
+  /**
+   * Gets the key of the local network that contains an address.
+   *
+   * @param address address on a local network
+   * @return network key or null if the address is not on a local network
+   */
+  private static String networkOf(InetAddress address) {
+    if (!(address instanceof Inet4Address)) return null;
+    try {
+      for (NetworkInterface netIF : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+        if (netIF.isLoopback() || !netIF.isUp()) continue;
+        for (InterfaceAddress intAddress : netIF.getInterfaceAddresses()) {
+          if (!(intAddress.getAddress() instanceof Inet4Address)) continue;
+          short prefix = intAddress.getNetworkPrefixLength();
+          if (maskAddress(intAddress.getAddress(), prefix) == maskAddress(address, prefix)) {
+            return networkKey(netIF.getName(), intAddress);
+          }
+        }
+      }
+    } catch (IOException | RuntimeException ignored) {
+    }
+    return null;
+  }
+
+  private static String networkKey(String interfaceName, InterfaceAddress intAddress) {
+    InetAddress address = intAddress.getAddress();
+    if (!(address instanceof Inet4Address)) return null;
+    short prefix = intAddress.getNetworkPrefixLength();
+    int network = maskAddress(address, prefix);
+    return interfaceName
+        + ' '
+        + ((network >>> 24) & 0xff)
+        + '.'
+        + ((network >>> 16) & 0xff)
+        + '.'
+        + ((network >>> 8) & 0xff)
+        + '.'
+        + (network & 0xff)
+        + '/'
+        + prefix;
+  }
+
+  private static int maskAddress(InetAddress address, short prefix) {
+    int addressInt = 0;
+    for (byte addressByte : address.getAddress()) {
+      addressInt = (addressInt << 8) | (addressByte & 0xff);
+    }
+    return prefix <= 0 ? 0 : addressInt & (-1 << (32 - Math.min(prefix, 32)));
+  }
+
+  private static final class Entry {
+    private final String network;
+    private final InetAddress address;
+    private int version;
+    private long lastSeen;
+    private int failures;
+    private ConnectionProfile profile;
+
+    private Entry(String network, InetAddress address, ConnectionProfile profile) {
+      this.network = network;
+      this.address = address;
+      this.profile = profile;
+    }
+
+    private static Entry parse(String line) {
+      String[] fields = line.split("\t");
+      if (fields.length != 9) return null;
+      try {
+        ConnectionProfile profile =
+            new ConnectionProfile(
+                Long.parseLong(fields[5]),
+                Long.parseLong(fields[6]),
+                Long.parseLong(fields[7]),
+                Integer.parseInt(fields[8]));
+        if (profile.getConnectTimeoutMs() <= 0) return null;
+        Entry entry = new Entry(fields[0], InetAddress.getByName(fields[1]), profile);
+        entry.version = Integer.parseInt(fields[2]);
+        entry.lastSeen = Long.parseLong(fields[3]);
+        entry.failures = Integer.parseInt(fields[4]);
+        return entry;
+      } catch (IOException | RuntimeException ignored) {
+        return null;
+      }
+    }
+
+    private String format() {
+      return this.network
+          + '\t'
+          + this.address.getHostAddress()
+          + '\t'
+          + this.version
+          + '\t'
+          + this.lastSeen
+          + '\t'
+          + this.failures
+          + '\t'
+          + this.profile.getSrttMicros()
+          + '\t'
+          + this.profile.getRttVarMicros()
+          + '\t'
+          + this.profile.getThroughput()
+          + '\t'
+          + this.profile.getConnectTimeoutMs();
+    }
+
+    private boolean isExpired(long now) {
+      return this.failures >= MAX_FAILURES || now - this.lastSeen > MAX_AGE_MS;
+    }
+  }
+}
@@ -24,6 +24,10 @@
 
 package com.clipshare;
 
+import com.clipshare.metrics.TransferStats;
+import com.clipshare.netConnection.ChannelConnection;
+import com.clipshare.netConnection.ConnectionPool;
+import com.clipshare.netConnection.ConnectionProfile;
 import com.clipshare.netConnection.PlainConnection;
 import com.clipshare.netConnection.ServerConnection;
 import com.clipshare.platformUtils.Utils;
@@ -37,8 +41,133 @@ import java.util.*;
 public class Main {
 
   public static final short APP_PORT = 4337;
+  private static final boolean USE_CHANNEL_CONNECTION =
+      "channel".equalsIgnoreCase(System.getProperty("clipshare.connection"));
+  private static final int WARM_CONNECTIONS = Integer.getInteger("clipshare.warmConnections", 1);
+  private static final int SEND_CONNECTIONS = Integer.getInteger("clipshare.sendConnections", 1);
+  private static final boolean PRINT_METRICS = Boolean.getBoolean("clipshare.metrics");
+  private static final int SCAN_TIMEOUT_MS = Integer.getInteger("clipshare.scanTimeout", 30000);
+  private static final int SCAN_GRACE_MS = 2000;
+  private static final int KNOWN_SERVER_TIMEOUT_MS = 300;
+  private static final File CLIENT_DIR =
+      new File(System.getProperty("user.home"), ".clipshare_client");
+  private static final File KNOWN_SERVERS_FILE =
+      new File(
+          System.getProperty(
+              "clipshare.knownServersFile", new File(CLIENT_DIR, "servers").getPath()));
+  private static final boolean TUNE_CONNECTIONS =
+      !"false".equalsIgnoreCase(System.getProperty("clipshare.tuning"));
+
+  /**
+   * Opens a new connection to the server. The connection type can be selected with the system
+   * property clipshare.connection, which may be "plain" (default) or "channel".
+   *
+   * @param serverAddr address of the server
+   * @param profile connection profile of the server
+   * @return connected server connection
+   * @throws IOException on connection error
+   */
+  private static ServerConnection connect(InetAddress serverAddr, ConnectionProfile profile)
+      throws IOException {
+    if (USE_CHANNEL_CONNECTION) {
+      return new ChannelConnection(serverAddr, APP_PORT, profile);
+    }
+    return new PlainConnection(serverAddr, APP_PORT, profile);
+  }
+
+  /**
+   * Checks whether the server may support protocol version 3 methods, based on the version
+   * negotiated recently. Returns true if the version is not known yet.
+   *
+   * @param serverAddr address of the server
+   * @return false if the server is known to support only older versions, or true otherwise
+   */
+  private static boolean supportsV3(InetAddress serverAddr) {
+    int version = ProtocolSelector.getCachedVersion(serverAddr);
+    return version == 0 || version >= 3;
+  }
+
+  /**
+   * Scans for servers and prints each one as soon as it is found. The scan stops when all networks
+   * are scanned or shortly after the first server is found. If more than one server is found, the
+   * user is asked to select one.
+   *
+   * @param finder discovery engine
+   * @param scan scanner to read the selection from
+   * @param preferred addresses to probe first
+   * @return address of the selected server or null if none
+   * @throws InterruptedException if interrupted while scanning
+   */
+  private static InetAddress scanServers(
+      ServerFinder finder, Scanner scan, List<InetAddress> preferred)
+      throws InterruptedException {
+    List<DiscoveredServer> servers = new ArrayList<>(4);
+    System.out.println("Scanning ...");
+    Discovery discovery =
+        finder.discover(
+            SCAN_TIMEOUT_MS,
+            preferred,
+            server -> {
+              synchronized (servers) {
+                servers.add(server);
+                System.out.println(servers.size() + ") " + server);
+              }
+            });
+    long graceEnd = 0;
+    boolean found = false;
+    while (!discovery.await(100)) {
+      synchronized (servers) {
+        if (servers.isEmpty()) continue;
+      }
+      if (!found) {
+        found = true;
+        graceEnd = System.nanoTime() + SCAN_GRACE_MS * 1000000L;
+      } else if (System.nanoTime() - graceEnd >= 0) {
+        break;
+      }
+    }
+    discovery.cancel();
+    if (PRINT_METRICS) {
+      discovery.await(1000);
+      for (String report : discovery.getReports()) {
+        System.out.println(report);
+      }
+    }
+    synchronized (servers) {
+      if (servers.size() <= 1) return servers.isEmpty() ? null : servers.get(0).getAddress();
+      while (true) {
+        System.out.print("Select server [1-" + servers.size() + "] : ");
+        try {
+          int index = Integer.parseInt(scan.nextLine().trim());
+          if (index >= 1 && index <= servers.size()) return servers.get(index - 1).getAddress();
+        } catch (NumberFormatException ignored) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the server as known and saves the known servers, once a protocol version has been
+   * negotiated with it. This is done after the first command that reaches the server, so that the
+   * server is remembered even if the client does not exit cleanly, and again on exit to update it.
+   *
+   * @param knownServers known servers
+   * @param server address of the server
+   * @param profile connection profile to save for the server, or null to keep the saved one
+   * @return true if the server was recorded, or false if no version was negotiated yet
+   */
+  private static boolean rememberServer(
+      KnownServers knownServers, InetAddress server, ConnectionProfile profile) {
+    int version = ProtocolSelector.getCachedVersion(server);
+    if (version <= 0) return false;
+    knownServers.recordSuccess(server, version, profile);
+    knownServers.save();
+    return true;
+  }
 
   public static void main(String[] args) {
+    KnownServers knownServers = KnownServers.load(KNOWN_SERVERS_FILE);
+    ServerFinder finder = new ServerFinder(APP_PORT, APP_PORT);
     Scanner scan = new Scanner(System.in);
     String command;
     Inet4Address serverAddr = null;
@@ -47,19 +176,21 @@ public class Main {
         System.out.print("Enter server address or enter 'sc' to scan : ");
         command = scan.nextLine();
         if ("-1".equals(command)) {
+          finder.close();
           scan.close();
           return;
         }
         if ("sc".equals(command)) {
-          List<InetAddress> addresses = ServerFinder.find(APP_PORT, APP_PORT);
-          if (addresses == null || addresses.isEmpty()) {
-            System.out.println("Scan failed");
+          DiscoveredServer known = knownServers.probe(APP_PORT, KNOWN_SERVER_TIMEOUT_MS);
+          knownServers.save();
+          if (known != null) {
+            System.out.println("Found known server " + known);
+            serverAddr = (Inet4Address) known.getAddress();
           } else {
-            serverAddr = (Inet4Address) addresses.get(0);
-            addresses.clear();
-            if (serverAddr == null) {
-              System.out.println("Scan failed");
-            }
+            serverAddr = (Inet4Address) scanServers(finder, scan, knownServers.getAddresses());
+          }
+          if (serverAddr == null) {
+            System.out.println("Scan failed");
           }
         } else {
           serverAddr = (Inet4Address) Inet4Address.getByName(command);
@@ -70,6 +201,13 @@ public class Main {
       } catch (Exception ignored) {
       }
     }
+    finder.close();
+    final InetAddress server = serverAddr;
+    ConnectionProfile profile =
+        TUNE_CONNECTIONS ? knownServers.getProfile(server) : new ConnectionProfile();
+    ConnectionProfile savedProfile = TUNE_CONNECTIONS ? profile : null;
+    ConnectionPool pool = new ConnectionPool(() -> connect(server, profile), WARM_CONNECTIONS);
+    boolean remembered = false;
     do {
       System.out.print("Enter command ( or 'q' to stop): ");
       try {
@@ -91,8 +229,9 @@ public class Main {
                   + "    display_number can be 1 or above. It can be ignored to use the default.");
           System.out.println("fg : Get copied files");
           System.out.println(
-              "fs [file_1] [file_2] [file_3] : Send files.\n"
-                  + "    File paths may be absolute or relative to current working directory.");
+              "fs [file_1] [file_2] [file_3] : Send files or folders.\n"
+                  + "    File paths may be absolute or relative to current working directory.\n"
+                  + "    Folders are sent with all their content.");
           System.out.println("q  : Quit");
         } else if (command.startsWith("fs ")) {
           String[] md = command.split("\\s+");
@@ -101,19 +240,16 @@ public class Main {
             String fileName = md[i];
             files[i - 1] = new File(fileName);
           }
-          Utils utils = new Utils(files);
-          while (utils.getRemainingFileCount() > 0) {
-            ServerConnection con = new PlainConnection(serverAddr, APP_PORT);
-            Proto pr = ProtocolSelector.getProto(con, utils);
-            if (pr.sendFile()) {
-              System.out.println("Sending completed");
-            } else {
-              System.out.println("Error while sending file(s)!");
-            }
-            pr.close();
+          ParallelFileSender sender = new ParallelFileSender(files, pool, SEND_CONNECTIONS);
+          ParallelFileSender.Report report = sender.send();
+          if (report.isSuccess()) {
+            System.out.println("Sending completed");
+          } else {
+            System.out.println("Error while sending file(s)!");
           }
+          System.out.println(report);
         } else if (command.equals("fg")) {
-          ServerConnection con = new PlainConnection(serverAddr, APP_PORT);
+          ServerConnection con = pool.acquire();
           Utils utils = new Utils();
           Proto pr = ProtocolSelector.getProto(con, utils);
           if (pr.getFile()) {
@@ -123,7 +259,7 @@ public class Main {
           }
           pr.close();
         } else if (command.equals("g")) {
-          ServerConnection con = new PlainConnection(serverAddr, APP_PORT);
+          ServerConnection con = pool.acquire();
           Proto pr = ProtocolSelector.getProto(con, null);
           String clip = pr.getText();
           if (clip != null) {
@@ -134,7 +270,7 @@ public class Main {
           }
           pr.close();
         } else if (command.equals("s")) {
-          ServerConnection con = new PlainConnection(serverAddr, APP_PORT);
+          ServerConnection con = pool.acquire();
           String clip = Utils.getClipboardText();
           if (clip != null) {
             Proto pr = ProtocolSelector.getProto(con, null);
@@ -145,10 +281,11 @@ public class Main {
             }
             pr.close();
           } else {
+            con.close();
             System.out.println("No text copied");
           }
         } else if (command.equals("i")) {
-          ServerConnection con = new PlainConnection(serverAddr, APP_PORT);
+          ServerConnection con = pool.acquire();
           Utils utils = new Utils();
           Proto pr = ProtocolSelector.getProto(con, utils);
           if (pr.getImage()) {
@@ -167,7 +304,11 @@ public class Main {
               System.out.println("Invalid display number");
             }
           }
-          ServerConnection con = new PlainConnection(serverAddr, APP_PORT);
+          if (!supportsV3(serverAddr)) {
+            System.out.println("The server does not support this option");
+            continue;
+          }
+          ServerConnection con = pool.acquire();
           Utils utils = new Utils();
           Proto pr = ProtocolSelector.getProto(con, utils);
           if (pr instanceof Proto_v3) {
@@ -182,7 +323,11 @@ public class Main {
           }
           pr.close();
         } else if (command.equals("ic")) {
-          ServerConnection con = new PlainConnection(serverAddr, APP_PORT);
+          if (!supportsV3(serverAddr)) {
+            System.out.println("The server does not support this option");
+            continue;
+          }
+          ServerConnection con = pool.acquire();
           Utils utils = new Utils();
           Proto pr = ProtocolSelector.getProto(con, utils);
           if (pr instanceof Proto_v3) {
@@ -200,7 +345,16 @@ public class Main {
       } catch (Exception ignored) {
         System.out.println("Error occurred! try again");
       }
+      if (PRINT_METRICS) {
+        for (String summary : TransferStats.getInstance().takeSummaries()) {
+          System.out.println(summary);
+        }
+        System.out.println("profile " + profile);
+      }
+      if (!remembered) remembered = rememberServer(knownServers, server, savedProfile);
     } while (!"q".equalsIgnoreCase(command));
+    pool.close();
+    rememberServer(knownServers, server, savedProfile);
     System.out.println("Bye!");
   }
 }
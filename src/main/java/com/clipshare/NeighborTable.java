@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Source of the addresses of hosts recently seen on the local networks. */
+interface NeighborTable {
+
+  /**
+   * Gets the addresses of the neighbours. This may be empty if the table is not available.
+   *
+   * @return IPv4 addresses of the neighbours
+   */
+  List<InetAddress> getNeighbors();
+
+  /**
+   * Gets the neighbour table of the operating system. On Linux this is the ARP cache in
+   * /proc/net/arp, and elsewhere the table is empty.
+   *
+   * @return neighbour table of the system
+   */
+  static NeighborTable system() {
+    return () -> readArpTable(new File("/proc/net/arp"));
+  }
+
+  /**
+   * Reads the complete entries of a file in the format of /proc/net/arp.
+   *
+   * @param file file to read
+   * @return addresses of the complete entries, or an empty list if the file cannot be read
+   */
+  static List<InetAddress> readArpTable(File file) {
+    if (!file.canRead()) return Collections.emptyList();
+    List<InetAddress> neighbors = new ArrayList<>(8);
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line = reader.readLine(); // header
+      while (line != null && (line = reader.readLine()) != null) {
+        String[] fields = line.trim().split("\\s+");
+        // IP address, HW type, Flags, HW address, Mask, Device. Flags 0x0 is an incomplete entry.
+        if (fields.length < 4 || "0x0".equals(fields[2])) continue;
+        if (!Character.isDigit(fields[0].charAt(0))) continue;
+        InetAddress address = InetAddress.getByName(fields[0]);
+        if (address instanceof Inet4Address) neighbors.add(address);
+      }
+    } catch (IOException | RuntimeException ignored) {
+    }
+    return neighbors;
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import com.clipshare.netConnection.ConnectionPool;
+import com.clipshare.netConnection.ServerConnection;
+import com.clipshare.platformUtils.FileTreeWalker;
+import com.clipshare.platformUtils.Utils;
+import com.clipshare.protocol.Proto;
+import com.clipshare.protocol.ProtocolSelector;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a set of files over several connections at the same time. The files are split into groups
+ * of about the same total size, and each group is sent over its own connection with its own
+ * negotiated protocol.
+ */
+class ParallelFileSender {
+
+  private final File[] files;
+  private final ConnectionPool pool;
+  private final int connections;
+
+  ParallelFileSender(File[] files, ConnectionPool pool, int connections) {
+    this.files = files;
+    this.pool = pool;
+    this.connections = Math.max(1, Math.min(connections, files.length));
+  }
+
+  /**
+   * Splits the files into groups balanced by size, placing each file, largest first, into the group
+   * with the least bytes so far. Directories are sized by the total size of their content. The
+   * counts taken here are kept in the groups, so that the directories are walked only once more, to
+   * send them.
+   *
+   * @param files files and directories to split
+   * @param groupCnt number of groups
+   * @return non-empty groups of files
+   */
+  static List<Group> splitBySize(File[] files, int groupCnt) {
+    HashMap<File, FileTreeWalker.Counts> counts = new HashMap<>(files.length * 2);
+    for (File file : files) {
+      counts.put(file, FileTreeWalker.count(file));
+    }
+    File[] sorted = Arrays.copyOf(files, files.length);
+    Arrays.sort(sorted, Comparator.comparingLong((File f) -> counts.get(f).getBytes()).reversed());
+    List<Group> groups = new ArrayList<>(groupCnt);
+    PriorityQueue<Group> queue =
+        new PriorityQueue<>(groupCnt, Comparator.comparingLong(g -> g.counts.getBytes()));
+    for (int i = 0; i < groupCnt; i++) {
+      Group group = new Group();
+      groups.add(group);
+      queue.add(group);
+    }
+    for (File file : sorted) {
+      Group group = queue.poll();
+      group.files.add(file);
+      group.counts.add(counts.get(file));
+      queue.add(group);
+    }
+    groups.removeIf(group -> group.files.isEmpty());
+    return groups;
+  }
+
+  /**
+   * Sends all files and waits until every connection has finished.
+   *
+   * @return merged report of all connections, which is failed if there are no files to send
+   */
+  Report send() {
+    List<Group> groups = splitBySize(this.files, this.connections);
+    Report report = new Report(groups.size());
+    if (groups.isEmpty()) {
+      report.addError("No files to send");
+      return report;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(groups.size());
+    for (Group group : groups) {
+      executor.submit(() -> this.sendGroup(group, report));
+    }
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        report.printProgress();
+      }
+    } catch (InterruptedException ignored) {
+      executor.shutdownNow();
+      report.addError("Interrupted");
+    }
+    return report;
+  }
+
+  private void sendGroup(Group group, Report report) {
+    Utils utils = new Utils(group.files.toArray(new File[0]), group.counts);
+    report.addPending(utils.getRemainingFileCount(), group.counts.getBytes());
+    try {
+      sendBatches(utils, report);
+    } finally {
+      utils.close();
+    }
+  }
+
+  private void sendBatches(Utils utils, Report report) {
+    int before;
+    while ((before = utils.getRemainingFileCount(true)) > 0) {
+      int beforeFiles = utils.getRemainingFileCount();
+      Proto pr = null;
+      try {
+        ServerConnection con = this.pool.acquire();
+        pr = ProtocolSelector.getProto(con, utils);
+        if (pr == null) {
+          con.close();
+          report.addError("Protocol negotiation failed");
+          return;
+        }
+        boolean status = pr.sendFile();
+        int sent = beforeFiles - utils.getRemainingFileCount();
+        if (status) {
+          report.addSent(sent);
+        } else {
+          report.addFailed(sent);
+          report.addError("Error while sending file(s)!");
+        }
+        if (utils.getRemainingFileCount(true) == before) {
+          // No progress. For example, only leaf directories remain and the server is older than v3
+          return;
+        }
+      } catch (Exception ex) {
+        report.addError(ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        return;
+      } finally {
+        if (pr != null) pr.close();
+      }
+    }
+  }
+
+  /** Files sent over one connection. */
+  static class Group {
+    private final List<File> files = new ArrayList<>();
+    private final FileTreeWalker.Counts counts = new FileTreeWalker.Counts();
+  }
+
+  /** Progress and errors of all connections of a parallel send. */
+  static class Report {
+    private final int connections;
+    private final List<String> errors = new ArrayList<>(2);
+    private int pendingFiles;
+    private long totalBytes;
+    private int sentFiles;
+    private int failedFiles;
+    private int printedFiles = -1;
+
+    private Report(int connections) {
+      this.connections = connections;
+    }
+
+    private synchronized void addPending(int files, long bytes) {
+      this.pendingFiles += files;
+      this.totalBytes += bytes;
+    }
+
+    private synchronized void addSent(int files) {
+      this.sentFiles += files;
+    }
+
+    private synchronized void addFailed(int files) {
+      this.failedFiles += files;
+    }
+
+    private synchronized void addError(String error) {
+      this.errors.add(error);
+    }
+
+    private synchronized void printProgress() {
+      int done = this.sentFiles + this.failedFiles;
+      if (done == this.printedFiles) return;
+      this.printedFiles = done;
+      System.out.println("Sent " + done + " of " + this.pendingFiles + " file(s)");
+    }
+
+    synchronized boolean isSuccess() {
+      return this.errors.isEmpty() && this.failedFiles == 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+      StringBuilder builder = new StringBuilder(64);
+      builder
+          .append(this.sentFiles)
+          .append(" of ")
+          .append(this.pendingFiles)
+          .append(" file(s) (")
+          .append(this.totalBytes)
+          .append(" bytes) sent over ")
+          .append(this.connections)
+          .append(" connection(s)");
+      for (String error : this.errors) {
+        builder.append('\n').append("  ").append(error);
+      }
+      return builder.toString();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+/**
+ * Decides how many probes a subnet scan keeps in flight. In adaptive mode the limit is adjusted
+ * once per epoch, which ends after as many probes have finished as the limit allowed when it
+ * started. The limit doubles each epoch until the network first pushes back, and grows additively
+ * after that. It is halved when the mean round trip time of the hosts that answered in the epoch is
+ * well above the lowest one seen, which means that packets are being queued on the way. A rise in
+ * the fraction of probes that got no answer also halves it, but only together with a smaller RTT
+ * increase, since unused addresses time out as well and their share varies across a subnet. An
+ * epoch in which no host answered gives no RTT to judge by, so the limit is kept as it is. In
+ * fixed mode the limit never changes.
+ */
+final class ProbeConcurrencyController {
+
+  private static final int MIN_LIMIT = 8;
+  private static final int INITIAL_LIMIT = 256;
+  private static final int ADDITIVE_STEP = 16;
+  private static final double TIMEOUT_RISE = 0.2;
+  private static final long RTT_SLACK_NANOS = 10000000; // 10 ms
+  private static final long LOSS_RTT_SLACK_NANOS = 2000000; // 2 ms
+
+  private final boolean adaptive;
+  private final int maxLimit;
+  private int resourceLimit;
+  private int limit;
+  private int peakLimit;
+  private boolean slowStart;
+  private int epochSize;
+  private int epochFinished;
+  private int epochTimeouts;
+  private long epochRttSum;
+  private double baselineTimeoutRatio;
+  private long minRttNanos;
+
+  /**
+   * Creates a controller.
+   *
+   * @param maxLimit maximum number of probes in flight, which is also the fixed limit
+   * @param adaptive true to adjust the limit or false to always use maxLimit
+   */
+  ProbeConcurrencyController(int maxLimit, boolean adaptive) {
+    this.adaptive = adaptive;
+    this.maxLimit = Math.max(1, maxLimit);
+    this.resourceLimit = this.maxLimit;
+    this.limit = adaptive ? Math.min(INITIAL_LIMIT, this.maxLimit) : this.maxLimit;
+    this.peakLimit = this.limit;
+    this.slowStart = true;
+    this.epochSize = this.limit;
+    this.baselineTimeoutRatio = 1.0;
+    this.minRttNanos = Long.MAX_VALUE;
+  }
+
+  int getLimit() {
+    return this.limit;
+  }
+
+  int getPeakLimit() {
+    return this.peakLimit;
+  }
+
+  boolean isAdaptive() {
+    return this.adaptive;
+  }
+
+  /**
+   * Records a probe whose host answered, either by accepting or by refusing the connection.
+   *
+   * @param rttNanos connect round trip time in nanoseconds
+   */
+  void onAnswered(long rttNanos) {
+    if (rttNanos < this.minRttNanos) this.minRttNanos = rttNanos;
+    this.epochRttSum += rttNanos;
+    this.onFinished(false);
+  }
+
+  /** Records a probe whose host did not answer before the deadline. */
+  void onTimeout() {
+    this.onFinished(true);
+  }
+
+  /**
+   * Records that a probe could not be started because of a local resource limit, such as running
+   * out of file descriptors. The limit is lowered to the number of probes in flight and is never
+   * raised above that again during the scan, since that would hit the same limit again.
+   *
+   * @param active number of probes in flight
+   */
+  void onResourceError(int active) {
+    this.limit = Math.max(1, Math.min(this.limit, active));
+    this.resourceLimit = this.limit;
+    this.slowStart = false;
+    this.epochSize = this.limit;
+  }
+
+  private void onFinished(boolean timedOut) {
+    if (!this.adaptive) return;
+    this.epochFinished++;
+    if (timedOut) this.epochTimeouts++;
+    if (this.epochFinished < this.epochSize) return;
+    double timeoutRatio = (double) this.epochTimeouts / this.epochFinished;
+    int answered = this.epochFinished - this.epochTimeouts;
+    long meanRtt = answered > 0 ? this.epochRttSum / answered : -1;
+    boolean queued = meanRtt > 2 * this.minRttNanos + RTT_SLACK_NANOS;
+    boolean lossy =
+        timeoutRatio > this.baselineTimeoutRatio + TIMEOUT_RISE
+            && meanRtt > this.minRttNanos + this.minRttNanos / 2 + LOSS_RTT_SLACK_NANOS;
+    if (queued || lossy) {
+      this.limit = Math.min(this.resourceLimit, Math.max(MIN_LIMIT, this.limit / 2));
+      this.slowStart = false;
+    } else if (answered > 0) {
+      this.baselineTimeoutRatio = Math.min(this.baselineTimeoutRatio, timeoutRatio);
+      int next = this.slowStart ? this.limit * 2 : this.limit + ADDITIVE_STEP;
+      this.limit = Math.min(this.resourceLimit, next);
+    }
+    if (this.limit > this.peakLimit) this.peakLimit = this.limit;
+    this.epochSize = this.limit;
+    this.epochFinished = 0;
+    this.epochTimeouts = 0;
+    this.epochRttSum = 0;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Addresses of a subnet in the order of a {@link ScanOrder}: the first addresses given, followed by
+ * a numeric sweep or a ring sweep around the address of this host. Each address is returned once.
+ */
+final class ScanCandidates implements PrimitiveIterator.OfInt {
+  private final int first;
+  private final int last;
+  private final int myAddress;
+  private final int[] priority;
+  private final boolean ring;
+  private final BitSet seen;
+  private int priorityIndex;
+  private int distance;
+  private boolean below;
+  private boolean hasNext;
+  private int next;
+
+  ScanCandidates(
+      int network, short prefix, int myAddress, List<InetAddress> firstAddresses, boolean ring) {
+    int hostCnt = prefix >= 31 ? 0 : (1 << (32 - prefix)) - 2;
+    this.first = network + 1;
+    this.last = network + hostCnt;
+    this.myAddress = myAddress;
+    this.ring = ring;
+    this.seen = new BitSet(Math.max(hostCnt, 0));
+    int count = 0;
+    int[] addresses = new int[firstAddresses != null ? firstAddresses.size() : 0];
+    for (int i = 0; i < addresses.length; i++) {
+      InetAddress address = firstAddresses.get(i);
+      if (address instanceof Inet4Address) addresses[count++] = toInt(address);
+    }
+    this.priority = Arrays.copyOf(addresses, count);
+    this.distance = ring ? 0 : -1;
+    this.advance();
+  }
+
+  private boolean accept(int address) {
+    if (address < this.first || address > this.last || address == this.myAddress) return false;
+    int index = address - this.first;
+    if (this.seen.get(index)) return false;
+    this.seen.set(index);
+    return true;
+  }
+
+  private void advance() {
+    while (this.priorityIndex < this.priority.length) {
+      int address = this.priority[this.priorityIndex++];
+      if (this.accept(address)) {
+        this.setNext(address);
+        return;
+      }
+    }
+    if (!this.ring) {
+      // Numeric sweep, where distance is the offset from the first address
+      while (++this.distance <= this.last - this.first) {
+        if (this.accept(this.first + this.distance)) {
+          this.setNext(this.first + this.distance);
+          return;
+        }
+      }
+      this.hasNext = false;
+      return;
+    }
+    while (true) {
+      if (this.below) {
+        this.below = false;
+        int address = this.myAddress - this.distance;
+        if (this.accept(address)) {
+          this.setNext(address);
+          return;
+        }
+      } else {
+        this.distance++;
+        if (this.myAddress - this.distance < this.first
+            && this.myAddress + this.distance > this.last) {
+          this.hasNext = false;
+          return;
+        }
+        this.below = true;
+        int address = this.myAddress + this.distance;
+        if (this.accept(address)) {
+          this.setNext(address);
+          return;
+        }
+      }
+    }
+  }
+
+  private void setNext(int address) {
+    this.next = address;
+    this.hasNext = true;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return this.hasNext;
+  }
+
+  @Override
+  public int nextInt() {
+    if (!this.hasNext) throw new NoSuchElementException();
+    int address = this.next;
+    this.advance();
+    return address;
+  }
+
+  /**
+   * Converts an IPv4 address to int form.
+   *
+   * @param address IPv4 address
+   * @return address in big-endian int form
+   */
+  static int toInt(InetAddress address) {
+    int addressInt = 0;
+    for (byte addressByte : address.getAddress()) {
+      addressInt = (addressInt << 8) | (addressByte & 0xff);
+    }
+    return addressInt;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+/**
+ * Order in which a subnet scan probes the addresses. Addresses are IPv4 addresses in big-endian
+ * int form.
+ */
+interface ScanOrder {
+
+  /**
+   * Gets the addresses of a subnet to probe, each once, excluding the network and broadcast
+   * addresses and the address of this host.
+   *
+   * @param network network address of the subnet
+   * @param prefix network prefix length of the subnet
+   * @param myAddress address of this host in the subnet
+   * @return addresses in the order they should be probed
+   */
+  PrimitiveIterator.OfInt addresses(int network, short prefix, int myAddress);
+
+  /**
+   * Gets the order that probes the addresses in increasing numeric order.
+   *
+   * @return numeric order
+   */
+  static ScanOrder numeric() {
+    return (network, prefix, myAddress) ->
+        new ScanCandidates(network, prefix, myAddress, null, false);
+  }
+
+  /**
+   * Gets the order that probes the addresses most likely to be a server first. These are the
+   * preferred addresses, such as servers used before, then the neighbours known to the system,
+   * and then all other addresses by increasing distance from the address of this host, since
+   * servers are often given addresses close to their clients.
+   *
+   * @param preferred addresses to probe first
+   * @param neighbors table of neighbours to probe next
+   * @return order by likelihood
+   */
+  static ScanOrder byLikelihood(List<InetAddress> preferred, NeighborTable neighbors) {
+    return (network, prefix, myAddress) -> {
+      List<InetAddress> first = new ArrayList<>(preferred);
+      first.addAll(neighbors.getNeighbors());
+      return new ScanCandidates(network, prefix, myAddress, first, true);
+    };
+  }
+}
@@ -27,140 +27,130 @@ package com.clipshare;
 import java.io.IOException;
 import java.net.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-class ServerFinder implements Runnable {
+/**
+ * Discovery engine. All discoveries started from one instance share a bounded pool of daemon
+ * threads, whose threads exit when idle, so repeated and concurrent discoveries do not add
+ * threads. Each discovery is tracked and cancelled through its own {@link Discovery} handle.
+ */
+class ServerFinder implements AutoCloseable {
+
+  private static final int SCAN_IN_FLIGHT = Integer.getInteger("clipshare.scanInFlight", 1024);
+  private static final int PROBE_TIMEOUT_MS = Integer.getInteger("clipshare.probeTimeout", 500);
+  private static final boolean FIXED_SCAN_WINDOW =
+      "fixed".equalsIgnoreCase(System.getProperty("clipshare.scanMode"));
+  private static final boolean NUMERIC_SCAN_ORDER =
+      "numeric".equalsIgnoreCase(System.getProperty("clipshare.scanOrder"));
+  private static final short MIN_SUBNET_PREFIX = 16;
+  private static final int MAX_THREADS = 8;
+  private static final long THREAD_IDLE_MS = 10000;
 
-  private static final HashMap<String, InetAddress> serverAddresses = new HashMap<>(2);
-  private static ExecutorService executorStatic;
-  private final NetworkInterface netIF;
-  private final Thread parent;
   private final int port;
   private final int portUDP;
+  private final ThreadPoolExecutor executor;
 
-  private ServerFinder(NetworkInterface netIF, int port, int portUDP, Thread parent) {
-    this.netIF = netIF;
-    this.parent = parent;
+  /**
+   * Creates a discovery engine.
+   *
+   * @param port TCP port of the servers
+   * @param portUDP UDP port of the servers
+   */
+  ServerFinder(int port, int portUDP) {
     this.port = port;
     this.portUDP = portUDP;
+    AtomicInteger threadNum = new AtomicInteger();
+    this.executor =
+        new ThreadPoolExecutor(
+            MAX_THREADS,
+            MAX_THREADS,
+            THREAD_IDLE_MS,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "server-finder-" + threadNum.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.executor.allowCoreThreadTimeOut(true);
   }
 
-  public static List<InetAddress> find(int port, int portUDP) {
+  /**
+   * Starts discovering servers on all IPv4 networks of the active interfaces, using both UDP
+   * broadcast and a TCP scan of each subnet. Servers are passed to the listener as soon as they
+   * are found. The discovery runs in the background until all subnets are scanned, the timeout
+   * elapses, or it is cancelled.
+   *
+   * @param timeoutMs maximum time to run in milliseconds
+   * @param preferred addresses to probe first, such as servers used before
+   * @param listener listener that receives the servers found
+   * @return handle of the running discovery
+   */
+  public Discovery discover(
+      long timeoutMs, List<InetAddress> preferred, DiscoveryListener listener) {
+    Discovery discovery =
+        new Discovery(listener, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+    List<Runnable> tasks = new ArrayList<>(4);
+    UdpDiscovery udpDiscovery = new UdpDiscovery(this.portUDP);
+    ScanOrder order =
+        NUMERIC_SCAN_ORDER
+            ? ScanOrder.numeric()
+            : ScanOrder.byLikelihood(preferred, NeighborTable.system());
     try {
-      synchronized (serverAddresses) {
-        serverAddresses.clear();
-      }
-      if (executorStatic != null) executorStatic.shutdownNow();
-      Enumeration<NetworkInterface> netIFEnum = NetworkInterface.getNetworkInterfaces();
-      Object[] netIFList = Collections.list(netIFEnum).toArray();
-      executorStatic = Executors.newFixedThreadPool(netIFList.length);
-      ExecutorService executor = executorStatic;
-      Thread curThread = Thread.currentThread();
-      for (Object netIFList1 : netIFList) {
-        NetworkInterface ni = (NetworkInterface) netIFList1;
-        Runnable task = new ServerFinder(ni, port, portUDP, curThread);
-        executor.submit(task);
+      for (NetworkInterface netIF : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+        this.addTasks(netIF, order, udpDiscovery, discovery, tasks);
       }
-      while (!executor.isTerminated()) {
-        if (!serverAddresses.isEmpty()) {
-          executor.shutdownNow();
-          break;
-        }
-        try {
-          //noinspection ResultOfMethodCallIgnored
-          executor.awaitTermination(500, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ignored) {
-          break;
-        }
-        executor.shutdown();
-      }
-      executor.shutdownNow();
     } catch (IOException | RuntimeException ignored) {
-      if (executorStatic != null) executorStatic.shutdownNow();
     }
-    List<InetAddress> addresses;
-    synchronized (serverAddresses) {
-      addresses = new ArrayList<>(serverAddresses.values());
+    if (!udpDiscovery.isEmpty()) tasks.add(() -> udpDiscovery.run(discovery));
+    for (Runnable task : tasks) {
+      Runnable tracked = discovery.track(task);
+      try {
+        this.executor.execute(tracked);
+      } catch (RejectedExecutionException ignored) {
+        discovery.taskFinished();
+      }
     }
-    return addresses;
+    return discovery;
   }
 
-  private void scanUDP(Inet4Address broadcastAddress, Inet4Address myAddress) {
-    new Thread(
-            () -> {
-              try {
-                DatagramSocket socket = new DatagramSocket();
-                byte[] buf = "in".getBytes();
-                DatagramPacket pkt = new DatagramPacket(buf, buf.length, broadcastAddress, portUDP);
-                socket.send(pkt);
-                buf = new byte[256];
-                pkt = new DatagramPacket(buf, buf.length);
-                int timeout = 1000;
-                while (true) {
-                  socket.setSoTimeout(timeout);
-                  timeout = 200;
-                  try {
-                    socket.receive(pkt);
-                  } catch (SocketTimeoutException ignored) {
-                    break;
-                  }
-                  InetAddress serverAddress = pkt.getAddress();
-                  if (myAddress.equals(serverAddress)) continue;
-                  String received = new String(pkt.getData()).replace("\0", "");
-                  if ("clip_share".equals(received)) {
-                    String addressStr = serverAddress.getHostAddress();
-                    if (addressStr != null) {
-                      addressStr = addressStr.intern();
-                      synchronized (serverAddresses) {
-                        serverAddresses.put(addressStr, serverAddress);
-                      }
-                    }
-                  }
-                }
-                if (!serverAddresses.isEmpty()) parent.interrupt();
-                socket.close();
-              } catch (IOException | RuntimeException ignored) {
-              }
-            })
-        .start();
+  /** Stops accepting new discoveries. Running discoveries continue until they are done. */
+  @Override
+  public void close() {
+    this.executor.shutdown();
   }
 
-  @Override
-  public void run() {
-    try {
-      if (netIF == null || netIF.isLoopback() || !netIF.isUp() || netIF.isVirtual()) {
-        return;
-      }
-      List<InterfaceAddress> addresses = netIF.getInterfaceAddresses();
-      for (InterfaceAddress intAddress : addresses) {
-        try {
-          InetAddress address = intAddress.getAddress();
-          if (address instanceof Inet4Address) {
-            InetAddress broadcastAddress = intAddress.getBroadcast();
-            if (broadcastAddress instanceof Inet4Address) {
-              scanUDP((Inet4Address) broadcastAddress, (Inet4Address) address);
-            }
-            short subLen = intAddress.getNetworkPrefixLength();
-            if (subLen < 22) subLen = 23;
-            SubnetScanner subnetScanner = new SubnetScanner(address, port, subLen);
-            InetAddress server = subnetScanner.scan(subLen >= 24 ? 32 : 64);
-            if (server != null) {
-              String addressStr = server.getHostAddress();
-              if (addressStr != null) {
-                addressStr = addressStr.intern();
-                synchronized (serverAddresses) {
-                  serverAddresses.put(addressStr, server);
-                }
-              }
-              break;
-            }
-          }
-        } catch (RuntimeException ignored) {
-        }
+  private void addTasks(
+      NetworkInterface netIF,
+      ScanOrder order,
+      UdpDiscovery udpDiscovery,
+      Discovery discovery,
+      List<Runnable> tasks)
+      throws SocketException {
+    if (netIF == null || netIF.isLoopback() || !netIF.isUp() || netIF.isVirtual()) {
+      return;
+    }
+    String interfaceName = netIF.getName();
+    for (InterfaceAddress intAddress : netIF.getInterfaceAddresses()) {
+      InetAddress address = intAddress.getAddress();
+      if (!(address instanceof Inet4Address)) continue;
+      InetAddress broadcastAddress = intAddress.getBroadcast();
+      if (broadcastAddress instanceof Inet4Address) {
+        udpDiscovery.addNetwork(netIF, intAddress);
       }
-    } catch (Exception ignored) {
+      short prefix = intAddress.getNetworkPrefixLength();
+      short subLen = prefix < MIN_SUBNET_PREFIX ? MIN_SUBNET_PREFIX : prefix;
+      tasks.add(
+          () ->
+              new SubnetScanner(
+                      address, this.port, subLen, PROBE_TIMEOUT_MS, interfaceName, order)
+                  .scan(
+                      new ProbeConcurrencyController(SCAN_IN_FLIGHT, !FIXED_SCAN_WINDOW),
+                      discovery));
     }
   }
 }
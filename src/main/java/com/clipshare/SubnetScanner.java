@@ -1,7 +1,7 @@
 /*
  * MIT License
  *
- * Copyright (c) 2022-2023 H. Thevindu J. Wijesekera
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
  *
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -24,36 +24,60 @@
 
 package com.clipshare;
 
-import com.clipshare.netConnection.PlainConnection;
-import com.clipshare.netConnection.ServerConnection;
-import com.clipshare.protocol.Proto;
-import com.clipshare.protocol.ProtocolSelector;
+import com.clipshare.protocol.ServerProbe;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Scans a subnet for servers. Every host is checked with a {@link ServerProbe}, and all probes are
+ * non-blocking and multiplexed on one selector in the calling thread.
+ */
 class SubnetScanner {
 
-  private final byte[] addressBytes;
-  private final InetAddress myAddress;
-  private final int hostCnt;
-  private final Object lock;
+  private final int network;
+  private final int myAddress;
   private final int port;
-  private volatile InetAddress serverAddress;
+  private final long probeTimeoutNanos;
+  private final String interfaceName;
+  private final short subLen;
+  private final ScanOrder order;
+  private int probed;
+  private int answered;
+  private int refused;
+  private int servers;
 
-  public SubnetScanner(InetAddress address, int port, short subLen) {
-    this.lock = new Object();
-    this.myAddress = address;
+  /**
+   * Creates a scanner for the subnet of an address.
+   *
+   * @param address address of this host in the subnet
+   * @param port port on which the servers listen
+   * @param subLen network prefix length of the subnet
+   * @param probeTimeoutMs time allowed for checking a single host, in milliseconds
+   * @param interfaceName name of the network interface of the address
+   * @param order order in which the addresses are probed
+   */
+  public SubnetScanner(
+      InetAddress address,
+      int port,
+      short subLen,
+      int probeTimeoutMs,
+      String interfaceName,
+      ScanOrder order) {
+    this.myAddress = ScanCandidates.toInt(address);
+    this.network = subLen <= 0 ? 0 : this.myAddress & (-1 << (32 - subLen));
+    this.interfaceName = interfaceName;
+    this.subLen = subLen;
+    this.order = order;
     this.port = port;
-    this.addressBytes = address.getAddress();
-    this.hostCnt = (1 << (32 - subLen)) - 2;
-    short hostLen = (short) (32 - subLen);
-    for (int i = 3; i >= 0 && hostLen > 0; i--) {
-      this.addressBytes[i] &= (byte) -(1 << hostLen);
-      hostLen -= 8;
-    }
+    this.probeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(probeTimeoutMs);
   }
 
   private static InetAddress convertAddress(int addressInt) throws UnknownHostException {
@@ -65,68 +89,130 @@ class SubnetScanner {
     return InetAddress.getByAddress(addressBytes);
   }
 
-  public InetAddress scan(int threadCnt) {
-    ExecutorService executor = Executors.newFixedThreadPool(threadCnt);
-    int addressInt = 0;
-    for (byte addressByte : addressBytes) {
-      addressInt = (addressInt << 8) | (addressByte & 0xff);
-    }
-    addressInt++;
-    int endAddress = addressInt + hostCnt;
-    for (int i = 0; i < threadCnt; i++) {
-      executor.submit(new IPScanner(addressInt++, endAddress, port, threadCnt));
-    }
-    while (this.serverAddress == null && !executor.isTerminated() && !Thread.interrupted()) {
-      synchronized (this.lock) {
-        try {
-          lock.wait(500);
-        } catch (InterruptedException ex) {
-          break;
-        }
+  /**
+   * Scans the subnet until all hosts are checked or the discovery is done. Each server found is
+   * reported to the discovery, followed by a summary of the scan.
+   *
+   * @param controller controller of the number of probes in progress at a time
+   * @param discovery discovery to which the servers are reported
+   */
+  public void scan(ProbeConcurrencyController controller, Discovery discovery) {
+    long start = System.nanoTime();
+    try (Selector selector = Selector.open()) {
+      Runnable wakeup = selector::wakeup;
+      discovery.addCancelCallback(wakeup);
+      try {
+        this.sweep(selector, controller, discovery);
+      } finally {
+        discovery.removeCancelCallback(wakeup);
       }
-      executor.shutdown();
+    } catch (IOException ignored) {
     }
-    executor.shutdownNow();
-    return this.serverAddress;
+    discovery.addReport(this.summary(controller, System.nanoTime() - start));
   }
 
-  private class IPScanner implements Runnable {
-
-    private final int addressEnd;
-    private final int step;
-    private int addressInt;
-    private final int port;
-
-    IPScanner(int startAddress, int endAddress, int port, int step) {
-      this.step = step;
-      this.addressInt = startAddress;
-      this.addressEnd = endAddress;
-      this.port = port;
-    }
-
-    @Override
-    public void run() {
-      while (!Thread.interrupted() && this.addressInt < this.addressEnd && serverAddress == null) {
-        try {
+  private void sweep(Selector selector, ProbeConcurrencyController controller, Discovery discovery)
+      throws IOException {
+    PrimitiveIterator.OfInt candidates =
+        this.order.addresses(this.network, this.subLen, this.myAddress);
+    boolean retry = false;
+    int addressInt = 0;
+    ArrayDeque<ServerProbe> inFlight = new ArrayDeque<>(Math.min(controller.getLimit(), 4096));
+    int active = 0;
+    try {
+      while (!discovery.isDone()) {
+        while (active < controller.getLimit() && (retry || candidates.hasNext())) {
+          if (!retry) addressInt = candidates.nextInt();
+          retry = false;
           InetAddress address = convertAddress(addressInt);
-          if (!address.equals(myAddress)) {
-            ServerConnection con = new PlainConnection(address, port);
-            Proto pr = ProtocolSelector.getProto(con, null);
-            if (pr != null) {
-              String serverName = pr.checkInfo();
-              if ("clip_share".equals(serverName)) {
-                synchronized (lock) {
-                  serverAddress = address;
-                  lock.notifyAll();
-                }
-              }
-            }
+          ServerProbe probe =
+              new ServerProbe(address, this.port, System.nanoTime() + this.probeTimeoutNanos);
+          try {
+            probe.start(selector);
+          } catch (IOException ex) {
+            // Most likely out of file descriptors. Continue with fewer probes in flight.
+            if (active == 0) return;
+            controller.onResourceError(active);
+            retry = true;
+            break;
+          }
+          this.probed++;
+          if (!probe.isDone()) {
+            inFlight.addLast(probe);
+            active++;
           }
-        } catch (IOException ex) { // Do not catch Interrupted exception in loop
-        } finally {
-          addressInt += step;
         }
+        if (active == 0) return;
+
+        // Deadlines are in the order the probes were started
+        long now = System.nanoTime();
+        while (!inFlight.isEmpty()) {
+          ServerProbe head = inFlight.peekFirst();
+          if (!head.isDone() && head.getDeadline() - now > 0) break;
+          inFlight.pollFirst();
+          if (!head.isDone()) {
+            head.close();
+            active--;
+            this.recordOutcome(head, controller);
+          }
+        }
+        if (inFlight.isEmpty()) continue;
+        long remaining = inFlight.peekFirst().getDeadline() - now;
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          ServerProbe probe = (ServerProbe) key.attachment();
+          if (probe.isDone()) continue;
+          probe.handle();
+          if (!probe.isDone()) continue;
+          active--;
+          this.recordOutcome(probe, controller);
+          if (probe.isServer()) {
+            this.servers++;
+            discovery.report(probe.getAddress(), this.interfaceName, probe.getRttNanos());
+          }
+        }
+      }
+    } finally {
+      for (ServerProbe probe : inFlight) {
+        probe.close();
       }
     }
   }
+
+  private void recordOutcome(ServerProbe probe, ProbeConcurrencyController controller) {
+    long rtt = probe.getRttNanos();
+    if (rtt < 0) {
+      controller.onTimeout();
+      return;
+    }
+    this.answered++;
+    if (probe.isRefused()) this.refused++;
+    controller.onAnswered(rtt);
+  }
+
+  private String summary(ProbeConcurrencyController controller, long durationNanos) {
+    return String.format(
+        Locale.ROOT,
+        "scan if=%s subnet=%d.%d.%d.%d/%d mode=%s duration_ms=%.1f probed=%d answered=%d"
+            + " refused=%d timeouts=%d success_rate=%.3f servers=%d final_limit=%d peak_limit=%d",
+        this.interfaceName,
+        (this.network >>> 24) & 0xff,
+        (this.network >>> 16) & 0xff,
+        (this.network >>> 8) & 0xff,
+        this.network & 0xff,
+        this.subLen,
+        controller.isAdaptive() ? "adaptive" : "fixed",
+        durationNanos / 1e6,
+        this.probed,
+        this.answered,
+        this.refused,
+        this.probed - this.answered,
+        this.probed > 0 ? (double) this.answered / this.probed : 0.0,
+        this.servers,
+        controller.getLimit(),
+        controller.getPeakLimit());
+  }
 }
@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds servers by UDP broadcast on all networks using a single datagram channel and selector. The
+ * request is broadcast several times with exponentially growing, jittered intervals so that a lost
+ * packet does not hide a server, and replies are collected until a fixed window after the last
+ * broadcast. A network on which the request cannot be sent is dropped, and the others carry on.
+ */
+final class UdpDiscovery {
+
+  private static final byte[] REQUEST = "in".getBytes(StandardCharsets.UTF_8);
+  private static final String REPLY = "clip_share";
+  private static final int ATTEMPTS = 4;
+  private static final long FIRST_INTERVAL_MS = 100;
+  private static final long REPLY_WINDOW_MS = 1000;
+
+  private final int port;
+  private final List<Target> targets;
+
+  /**
+   * Creates a UDP discovery.
+   *
+   * @param port UDP port of the servers
+   */
+  UdpDiscovery(int port) {
+    this.port = port;
+    this.targets = new ArrayList<>(2);
+  }
+
+  /**
+   * Adds a network to broadcast to.
+   *
+   * @param netIF interface connected to the network
+   * @param intAddress address of the interface on the network, which must have a broadcast address
+   */
+  void addNetwork(NetworkInterface netIF, InterfaceAddress intAddress) {
+    this.targets.add(new Target(netIF.getName(), intAddress, this.port));
+  }
+
+  boolean isEmpty() {
+    return this.targets.isEmpty();
+  }
+
+  /**
+   * Broadcasts the request and reports each server that replies, until the reply window closes or
+   * the discovery is done.
+   *
+   * @param discovery discovery to which the servers are reported
+   */
+  void run(Discovery discovery) {
+    Runnable wakeup = null;
+    try (DatagramChannel channel = DatagramChannel.open();
+        Selector selector = Selector.open()) {
+      wakeup = selector::wakeup;
+      discovery.addCancelCallback(wakeup);
+      channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+      channel.bind(new InetSocketAddress(0));
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ);
+      ByteBuffer request = ByteBuffer.wrap(REQUEST);
+      ByteBuffer reply = ByteBuffer.allocate(256);
+      int sent = 0;
+      int live = this.targets.size();
+      long interval = TimeUnit.MILLISECONDS.toNanos(FIRST_INTERVAL_MS);
+      long nextSend = System.nanoTime();
+      long windowEnd = nextSend;
+      while (!discovery.isDone()) {
+        long now = System.nanoTime();
+        if (sent < ATTEMPTS && now - nextSend >= 0) {
+          for (Target target : this.targets) {
+            if (target.failed) continue;
+            request.rewind();
+            try {
+              channel.send(request, target.broadcast);
+              target.lastSend = System.nanoTime();
+            } catch (IOException ignored) {
+              target.failed = true;
+              live--;
+            }
+          }
+          if (live == 0) break;
+          sent++;
+          nextSend = now + jitter(interval);
+          interval *= 2;
+          windowEnd = now + TimeUnit.MILLISECONDS.toNanos(REPLY_WINDOW_MS);
+        }
+        if (sent >= ATTEMPTS && now - windowEnd >= 0) break;
+        long wakeAt = sent < ATTEMPTS ? nextSend : windowEnd;
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wakeAt - now)));
+        selector.selectedKeys().clear();
+        SocketAddress source;
+        while ((source = channel.receive(reply)) != null) {
+          long receivedAt = System.nanoTime();
+          reply.flip();
+          String received = StandardCharsets.UTF_8.decode(reply).toString().replace("\0", "");
+          reply.clear();
+          if (!REPLY.equals(received) || !(source instanceof InetSocketAddress)) continue;
+          this.handleReply(((InetSocketAddress) source).getAddress(), receivedAt, discovery);
+        }
+      }
+    } catch (IOException | RuntimeException ignored) {
+    } finally {
+      if (wakeup != null) discovery.removeCancelCallback(wakeup);
+    }
+  }
+
+  /**
+   * Reports a server that replied, on the network that contains its address. The round trip time
+   * is measured from the last request sent to that network.
+   *
+   * @param serverAddress address the reply came from
+   * @param receivedAt time the reply was received, as given by System.nanoTime()
+   * @param discovery discovery to which the server is reported
+   */
+  private void handleReply(InetAddress serverAddress, long receivedAt, Discovery discovery) {
+    Target network = null;
+    Target fallback = null;
+    for (Target target : this.targets) {
+      if (target.address.equals(serverAddress)) return;
+      if (target.failed) continue;
+      if (network == null && target.contains(serverAddress)) network = target;
+      if (fallback == null) fallback = target;
+    }
+    if (network == null) network = fallback;
+    if (network == null) return;
+    discovery.report(serverAddress, network.name, receivedAt - network.lastSend);
+  }
+
+  /**
+   * Randomizes an interval by up to 25% in either direction, so that clients started together do
+   * not broadcast at the same time.
+   */
+  private static long jitter(long interval) {
+    long spread = interval / 4;
+    return interval - spread + ThreadLocalRandom.current().nextLong(2 * spread + 1);
+  }
+
+  private static final class Target {
+    private final String name;
+    private final InetAddress address;
+    private final InetSocketAddress broadcast;
+    private final short prefix;
+    private long lastSend;
+    private boolean failed;
+
+    private Target(String name, InterfaceAddress intAddress, int port) {
+      this.name = name;
+      this.address = intAddress.getAddress();
+      this.broadcast = new InetSocketAddress(intAddress.getBroadcast(), port);
+      this.prefix = intAddress.getNetworkPrefixLength();
+    }
+
+    private boolean contains(InetAddress other) {
+      byte[] mine = this.address.getAddress();
+      byte[] theirs = other.getAddress();
+      if (mine.length != theirs.length) return false;
+      int bits = this.prefix;
+      for (int i = 0; i < mine.length && bits > 0; i++, bits -= 8) {
+        int mask = bits >= 8 ? 0xff : (0xff << (8 - bits)) & 0xff;
+        if ((mine[i] & mask) != (theirs[i] & mask)) return false;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.metrics;
+
+import java.net.InetAddress;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for one blocking send or receive call on a server connection. Only calls
+ * blocked for longer than the threshold (1 ms by default) are recorded, so that a fast transfer
+ * does not flood the recording while stalls show up on the timeline. Set the threshold to 0 ms in
+ * the recording settings to record every chunk. Events are only created while a recording is
+ * running, so that the transfer loops do not allocate one per chunk otherwise.
+ */
+@Name("com.clipshare.Chunk")
+@Label("Chunk I/O")
+@Description("Send or receive call on a server connection")
+@Category({"ClipShare", "Network"})
+@StackTrace(false)
+@Threshold("1 ms")
+public final class ChunkEvent extends Event {
+
+  @Label("Server Address")
+  String address;
+
+  @Label("Direction")
+  String direction;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+
+  private static volatile boolean recording = true;
+
+  static {
+    try {
+      FlightRecorder.addListener(
+          new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+              updateRecording();
+            }
+
+            @Override
+            public void recordingStateChanged(Recording changed) {
+              updateRecording();
+            }
+          });
+      updateRecording();
+    } catch (RuntimeException ignored) {
+    }
+  }
+
+  private static void updateRecording() {
+    boolean running = false;
+    if (FlightRecorder.isInitialized()) {
+      for (Recording rec : FlightRecorder.getFlightRecorder().getRecordings()) {
+        if (rec.getState() == RecordingState.RUNNING) running = true;
+      }
+    }
+    recording = running;
+  }
+
+  /**
+   * Creates and begins an event for a send or receive call, if a recording is running.
+   *
+   * @return begun event, or null if no recording is running
+   */
+  public static ChunkEvent start() {
+    if (!recording) return null;
+    ChunkEvent event = new ChunkEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Ends the event and commits it if it is enabled and longer than the threshold.
+   *
+   * @param serverAddress address of the server
+   * @param sent true if the bytes were sent or false if they were received
+   * @param byteCount number of bytes moved
+   */
+  public void complete(InetAddress serverAddress, boolean sent, long byteCount) {
+    this.end();
+    if (!this.shouldCommit()) return;
+    this.address = serverAddress != null ? serverAddress.getHostAddress() : null;
+    this.direction = sent ? "send" : "receive";
+    this.bytes = byteCount;
+    this.commit();
+  }
+}
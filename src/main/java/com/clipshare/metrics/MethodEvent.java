@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.metrics;
+
+import java.net.InetAddress;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one protocol method, from sending the method code until the connection
+ * is closed.
+ */
+@Name("com.clipshare.Method")
+@Label("Protocol Method")
+@Description("Protocol method invoked on a server")
+@Category({"ClipShare", "Protocol"})
+public final class MethodEvent extends Event {
+
+  @Label("Server Address")
+  String address;
+
+  @Label("Method")
+  String method;
+
+  @Label("Bytes Sent")
+  @DataAmount
+  long bytesSent;
+
+  @Label("Bytes Received")
+  @DataAmount
+  long bytesReceived;
+
+  /**
+   * Ends the event and commits it if it is enabled.
+   *
+   * @param serverAddress address of the server
+   * @param metrics metrics of the connection on which the method was invoked
+   */
+  public void complete(InetAddress serverAddress, TransferMetrics metrics) {
+    this.end();
+    if (!this.shouldCommit()) return;
+    this.address = serverAddress != null ? serverAddress.getHostAddress() : null;
+    this.method = metrics.getOperation();
+    this.bytesSent = metrics.getBytesSent();
+    this.bytesReceived = metrics.getBytesReceived();
+    this.commit();
+  }
+}
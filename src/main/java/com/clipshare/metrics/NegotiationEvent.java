@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.metrics;
+
+import java.net.InetAddress;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event for the protocol version negotiation on a new connection. */
+@Name("com.clipshare.Negotiation")
+@Label("Protocol Negotiation")
+@Description("Protocol version negotiation with a server")
+@Category({"ClipShare", "Protocol"})
+public final class NegotiationEvent extends Event {
+
+  @Label("Server Address")
+  String address;
+
+  @Label("Proposed Version")
+  int proposedVersion;
+
+  @Label("Selected Version")
+  int selectedVersion;
+
+  /**
+   * Ends the event and commits it if it is enabled.
+   *
+   * @param serverAddress address of the server
+   * @param proposed version proposed by the client
+   * @param selected version used for the connection or 0 if negotiation failed
+   */
+  public void complete(InetAddress serverAddress, int proposed, int selected) {
+    this.end();
+    if (!this.shouldCommit()) return;
+    this.address = serverAddress != null ? serverAddress.getHostAddress() : null;
+    this.proposedVersion = proposed;
+    this.selectedVersion = selected;
+    this.commit();
+  }
+}
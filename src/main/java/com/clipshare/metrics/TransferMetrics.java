@@ -0,0 +1,212 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.metrics;
+
+import java.util.Locale;
+
+/**
+ * Timings and byte counts of one connection and the operation done on it. Times are measured with
+ * System.nanoTime(). A value of -1 means that the phase did not happen.
+ */
+public final class TransferMetrics {
+
+  private long connectNanos = -1;
+  private long negotiationNanos = -1;
+  private String operation;
+  private long operationStart = -1;
+  private long methodInitNanos = -1;
+  private long firstByteNanos = -1;
+  private boolean awaitingFirstByte;
+  private long bytesSent;
+  private long bytesReceived;
+  private long chunks;
+  private long stallNanos;
+  private long maxStallNanos;
+  private long durationNanos = -1;
+  private boolean finished;
+
+  public synchronized void recordConnect(long nanos) {
+    this.connectNanos = nanos;
+  }
+
+  public synchronized void recordNegotiation(long nanos) {
+    this.negotiationNanos = nanos;
+  }
+
+  /**
+   * Marks the start of an operation, before the method is sent to the server.
+   *
+   * @param name name of the operation
+   */
+  public synchronized void startOperation(String name) {
+    this.operation = name;
+    this.operationStart = System.nanoTime();
+  }
+
+  /** Marks that the server accepted the method. The next byte moved is the first payload byte. */
+  public synchronized void methodAccepted() {
+    if (this.operationStart < 0) return;
+    this.methodInitNanos = System.nanoTime() - this.operationStart;
+    this.awaitingFirstByte = true;
+  }
+
+  /**
+   * Records a completed write to the socket. Data held back by a connection is only recorded when
+   * it is written out, so that the time measures the socket rather than the copy into a buffer.
+   *
+   * @param bytes number of bytes sent
+   * @param nanos time the call was blocked
+   */
+  public synchronized void recordSent(long bytes, long nanos) {
+    this.bytesSent += bytes;
+    this.recordChunk(nanos);
+  }
+
+  /**
+   * Records a completed receive call.
+   *
+   * @param bytes number of bytes received
+   * @param nanos time the call was blocked
+   */
+  public synchronized void recordReceived(long bytes, long nanos) {
+    this.bytesReceived += bytes;
+    this.recordChunk(nanos);
+  }
+
+  private void recordChunk(long nanos) {
+    this.chunks++;
+    this.stallNanos += nanos;
+    if (nanos > this.maxStallNanos) this.maxStallNanos = nanos;
+    if (this.awaitingFirstByte) {
+      this.awaitingFirstByte = false;
+      this.firstByteNanos = System.nanoTime() - this.operationStart;
+    }
+  }
+
+  /**
+   * Marks the end of the operation and adds it to TransferStats. Does nothing if the connection was
+   * not used or if this was already called.
+   */
+  public void finish() {
+    synchronized (this) {
+      if (this.finished || (this.operation == null && this.negotiationNanos < 0)) return;
+      this.finished = true;
+      if (this.operationStart >= 0) this.durationNanos = System.nanoTime() - this.operationStart;
+    }
+    TransferStats.getInstance().record(this);
+  }
+
+  public synchronized String getOperation() {
+    return this.operation;
+  }
+
+  public synchronized long getConnectNanos() {
+    return this.connectNanos;
+  }
+
+  public synchronized long getNegotiationNanos() {
+    return this.negotiationNanos;
+  }
+
+  public synchronized long getMethodInitNanos() {
+    return this.methodInitNanos;
+  }
+
+  public synchronized long getFirstByteNanos() {
+    return this.firstByteNanos;
+  }
+
+  public synchronized long getBytesSent() {
+    return this.bytesSent;
+  }
+
+  public synchronized long getBytesReceived() {
+    return this.bytesReceived;
+  }
+
+  public synchronized long getChunks() {
+    return this.chunks;
+  }
+
+  public synchronized long getDurationNanos() {
+    return this.durationNanos;
+  }
+
+  public synchronized long getStallNanos() {
+    return this.stallNanos;
+  }
+
+  public synchronized long getMaxStallNanos() {
+    return this.maxStallNanos;
+  }
+
+  /**
+   * Gets the throughput of the operation, counting bytes in both directions.
+   *
+   * @return bytes per second or -1 if the operation has not finished
+   */
+  public synchronized long getThroughput() {
+    if (this.durationNanos <= 0) return -1;
+    return (long) ((this.bytesSent + this.bytesReceived) * 1e9 / this.durationNanos);
+  }
+
+  /**
+   * Gets a single line summary of the form "metrics key=value ...", meant to be machine-readable.
+   * Times are in milliseconds and missing values are shown as "-".
+   *
+   * @return summary line
+   */
+  public synchronized String summary() {
+    return "metrics op="
+        + (this.operation != null ? this.operation : "none")
+        + " connect_ms="
+        + millis(this.connectNanos)
+        + " negotiate_ms="
+        + millis(this.negotiationNanos)
+        + " init_ms="
+        + millis(this.methodInitNanos)
+        + " ttfb_ms="
+        + millis(this.firstByteNanos)
+        + " duration_ms="
+        + millis(this.durationNanos)
+        + " bytes_sent="
+        + this.bytesSent
+        + " bytes_received="
+        + this.bytesReceived
+        + " throughput_bps="
+        + (this.durationNanos > 0 ? Long.toString(this.getThroughput()) : "-")
+        + " chunks="
+        + this.chunks
+        + " stall_ms="
+        + millis(this.stallNanos)
+        + " max_stall_ms="
+        + millis(this.maxStallNanos);
+  }
+
+  private static String millis(long nanos) {
+    if (nanos < 0) return "-";
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+  }
+}
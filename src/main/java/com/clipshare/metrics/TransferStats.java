@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.ObjectName;
+
+/**
+ * Totals of all finished operations and the metrics of the last one. The instance is registered as
+ * an MBean the first time an operation is recorded.
+ */
+public final class TransferStats implements TransferStatsMXBean {
+
+  private static final int MAX_PENDING_SUMMARIES = 64;
+  private static final TransferStats instance = new TransferStats();
+
+  private final ArrayDeque<String> pendingSummaries;
+  private long operations;
+  private long bytesSent;
+  private long bytesReceived;
+  private TransferMetrics last;
+  private boolean registered;
+
+  private TransferStats() {
+    this.pendingSummaries = new ArrayDeque<>(8);
+  }
+
+  public static TransferStats getInstance() {
+    return instance;
+  }
+
+  void record(TransferMetrics metrics) {
+    String summary = metrics.summary();
+    boolean register;
+    synchronized (this) {
+      this.operations++;
+      this.bytesSent += metrics.getBytesSent();
+      this.bytesReceived += metrics.getBytesReceived();
+      this.last = metrics;
+      if (this.pendingSummaries.size() >= MAX_PENDING_SUMMARIES) this.pendingSummaries.pollFirst();
+      this.pendingSummaries.addLast(summary);
+      register = !this.registered;
+      this.registered = true;
+    }
+    if (register) {
+      try {
+        ObjectName name = new ObjectName("com.clipshare:type=Transfers");
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      } catch (Exception | LinkageError ignored) {
+      }
+    }
+  }
+
+  /**
+   * Removes and returns the summary lines of operations finished since the last call.
+   *
+   * @return summary lines in the order the operations finished
+   */
+  public synchronized List<String> takeSummaries() {
+    List<String> summaries = new ArrayList<>(this.pendingSummaries);
+    this.pendingSummaries.clear();
+    return summaries;
+  }
+
+  @Override
+  public synchronized long getOperations() {
+    return this.operations;
+  }
+
+  @Override
+  public synchronized long getBytesSent() {
+    return this.bytesSent;
+  }
+
+  @Override
+  public synchronized long getBytesReceived() {
+    return this.bytesReceived;
+  }
+
+  @Override
+  public synchronized String getLastOperation() {
+    return this.last != null ? this.last.getOperation() : null;
+  }
+
+  @Override
+  public synchronized double getLastConnectMillis() {
+    return this.last != null ? millis(this.last.getConnectNanos()) : -1;
+  }
+
+  @Override
+  public synchronized double getLastNegotiationMillis() {
+    return this.last != null ? millis(this.last.getNegotiationNanos()) : -1;
+  }
+
+  @Override
+  public synchronized double getLastTimeToFirstByteMillis() {
+    return this.last != null ? millis(this.last.getFirstByteNanos()) : -1;
+  }
+
+  @Override
+  public synchronized double getLastDurationMillis() {
+    return this.last != null ? millis(this.last.getDurationNanos()) : -1;
+  }
+
+  @Override
+  public synchronized long getLastThroughput() {
+    return this.last != null ? this.last.getThroughput() : -1;
+  }
+
+  @Override
+  public synchronized double getLastStallMillis() {
+    return this.last != null ? millis(this.last.getStallNanos()) : -1;
+  }
+
+  @Override
+  public synchronized double getLastMaxStallMillis() {
+    return this.last != null ? millis(this.last.getMaxStallNanos()) : -1;
+  }
+
+  @Override
+  public synchronized String getLastSummary() {
+    return this.last != null ? this.last.summary() : null;
+  }
+
+  private static double millis(long nanos) {
+    return nanos < 0 ? -1 : nanos / 1e6;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.netConnection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/** A small shared pool of direct buffers used for socket I/O. */
+public final class BufferPool {
+
+  public static final int BUFFER_SIZE = 65536;
+  private static final int MAX_POOLED = 8;
+  private static final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>(MAX_POOLED);
+
+  private BufferPool() {}
+
+  /**
+   * Takes a cleared direct buffer of BUFFER_SIZE bytes from the pool, or allocates a new one if the
+   * pool is empty.
+   *
+   * @return a direct buffer ready for writing
+   */
+  public static ByteBuffer acquire() {
+    ByteBuffer buffer;
+    synchronized (pool) {
+      buffer = pool.pollFirst();
+    }
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer obtained from acquire() to the pool. The buffer must not be used after this.
+   *
+   * @param buffer buffer to return
+   */
+  public static void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect() || buffer.capacity() != BUFFER_SIZE) return;
+    synchronized (pool) {
+      if (pool.size() < MAX_POOLED) pool.offerFirst(buffer);
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.netConnection;
+
+import com.clipshare.metrics.ChunkEvent;
+import com.clipshare.metrics.ConnectEvent;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+public class ChannelConnection extends ServerConnection {
+
+  private final SocketChannel channel;
+  private final ByteBuffer[] gather;
+  private ByteBuffer pending;
+
+  /**
+   * Unencrypted TCP connection to the server that performs all I/O directly on a SocketChannel.
+   * Byte array transfers are staged through pooled direct buffers. Data sent is collected in a
+   * pooled buffer, including ByteBuffers that fit in the space left, so that the first header after
+   * a flush does not go out in a segment of its own. A larger ByteBuffer is written together with
+   * the collected data in one gathering write, without an intermediate copy.
+   *
+   * @param serverAddress address of the server
+   * @param port port on which the server is listening
+   * @throws IOException on socket connection error
+   */
+  public ChannelConnection(InetAddress serverAddress, int port) throws IOException {
+    this(serverAddress, port, new ConnectionProfile());
+  }
+
+  /**
+   * Connects to the server with the settings of a connection profile.
+   *
+   * @param serverAddress address of the server
+   * @param port port on which the server is listening
+   * @param profile profile of the server
+   * @throws IOException on socket connection error
+   */
+  public ChannelConnection(InetAddress serverAddress, int port, ConnectionProfile profile)
+      throws IOException {
+    super(SocketChannel.open().socket(), profile);
+    this.channel = this.socket.getChannel();
+    this.gather = new ByteBuffer[2];
+    ConnectEvent event = new ConnectEvent();
+    event.begin();
+    try {
+      long start = System.nanoTime();
+      this.socket.connect(
+          new InetSocketAddress(serverAddress, port), profile.getConnectTimeoutMs());
+      this.metrics.recordConnect(System.nanoTime() - start);
+    } catch (IOException ex) {
+      if (ex instanceof SocketTimeoutException) profile.recordConnectTimeout();
+      event.complete(serverAddress, port, "ChannelConnection", false);
+      this.close();
+      throw ex;
+    }
+    event.complete(serverAddress, port, "ChannelConnection", true);
+  }
+
+  @Override
+  public boolean send(byte[] buffer, int offset, int length) {
+    try {
+      if (this.pending == null) this.pending = BufferPool.acquire();
+      while (length > 0) {
+        int chunk = Math.min(length, this.pending.remaining());
+        this.pending.put(buffer, offset, chunk);
+        offset += chunk;
+        length -= chunk;
+        if (!this.pending.hasRemaining() && this.flush()) return true;
+      }
+      return false;
+    } catch (RuntimeException ex) {
+      return true;
+    }
+  }
+
+  @Override
+  public boolean receive(byte[] buffer, int offset, int length) {
+    ByteBuffer buf = BufferPool.acquire();
+    try {
+      while (length > 0) {
+        int chunk = Math.min(length, buf.capacity());
+        buf.clear();
+        buf.limit(chunk);
+        if (this.receive(buf)) return true;
+        buf.flip();
+        buf.get(buffer, offset, chunk);
+        offset += chunk;
+        length -= chunk;
+      }
+      return false;
+    } catch (RuntimeException ex) {
+      return true;
+    } finally {
+      BufferPool.release(buf);
+    }
+  }
+
+  @Override
+  public boolean send(ByteBuffer buffer) {
+    try {
+      if (this.pending == null) this.pending = BufferPool.acquire();
+      if (buffer.remaining() <= this.pending.remaining()) {
+        this.pending.put(buffer);
+        return false;
+      }
+      if (this.pending.position() == 0) return this.write(buffer, null);
+      this.pending.flip();
+      boolean failed = this.write(this.pending, buffer);
+      this.pending.clear();
+      return failed;
+    } catch (RuntimeException ex) {
+      return true;
+    }
+  }
+
+  @Override
+  public boolean flush() {
+    if (this.pending == null || this.pending.position() == 0) return false;
+    this.pending.flip();
+    boolean failed = this.write(this.pending, null);
+    this.pending.clear();
+    return failed;
+  }
+
+  /**
+   * Writes out all remaining bytes of one or two buffers, using a gathering write for two.
+   *
+   * @param first buffer to write first
+   * @param second buffer to write after the first one, or null
+   * @return false on success or true on failure
+   */
+  private boolean write(ByteBuffer first, ByteBuffer second) {
+    try {
+      ChunkEvent event = ChunkEvent.start();
+      long start = System.nanoTime();
+      long length = first.remaining();
+      if (second == null) {
+        while (first.hasRemaining()) {
+          this.channel.write(first);
+        }
+      } else {
+        length += second.remaining();
+        this.gather[0] = first;
+        this.gather[1] = second;
+        while (second.hasRemaining()) {
+          this.channel.write(this.gather);
+        }
+        this.gather[0] = null;
+        this.gather[1] = null;
+      }
+      this.metrics.recordSent(length, System.nanoTime() - start);
+      if (event != null) event.complete(this.getServerAddress(), true, length);
+      return false;
+    } catch (RuntimeException | IOException ex) {
+      return true;
+    }
+  }
+
+  @Override
+  public boolean receive(ByteBuffer buffer) {
+    if (this.flush()) return true;
+    try {
+      ChunkEvent event = ChunkEvent.start();
+      long start = System.nanoTime();
+      int length = buffer.remaining();
+      while (buffer.hasRemaining()) {
+        if (this.channel.read(buffer) < 0) return true;
+      }
+      this.metrics.recordReceived(length, System.nanoTime() - start);
+      if (event != null) event.complete(this.getServerAddress(), false, length);
+      return false;
+    } catch (RuntimeException | IOException ex) {
+      return true;
+    }
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    synchronized (this) {
+      BufferPool.release(this.pending);
+      this.pending = null;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.netConnection;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a few idle connections to a server, already connected, so that a command does not have to
+ * wait for the TCP handshake. Used connections are replaced in the background, and so are idle
+ * connections before they have been idle for too long. A command connects by itself only when no
+ * idle connection could be made.
+ */
+public class ConnectionPool {
+
+  /** Opens a new connection to the server. */
+  public interface Connector {
+    ServerConnection connect() throws IOException;
+  }
+
+  private static final long MAX_IDLE_MS = 15000;
+  // Leaves time for the replacement to connect before the idle connection expires
+  private static final long REFRESH_MS = 10000;
+
+  private final Connector connector;
+  private final int size;
+  private final ArrayDeque<IdleConnection> idle;
+  private final ScheduledExecutorService executor;
+  private int pending;
+  private boolean closed;
+
+  /**
+   * Creates a pool and starts connecting its idle connections in the background.
+   *
+   * @param connector used to open new connections
+   * @param size number of idle connections to keep. 0 disables pre-connecting.
+   */
+  public ConnectionPool(Connector connector, int size) {
+    this.connector = connector;
+    this.size = Math.max(size, 0);
+    this.idle = new ArrayDeque<>(this.size);
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "connection-pool");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.pending = 0;
+    this.closed = false;
+    this.refill();
+  }
+
+  /**
+   * Takes a connection from the pool, or opens a new one if no usable idle connection is available.
+   * Idle connections that the server has closed, or that were idle for too long, are discarded.
+   *
+   * @return a connected server connection owned by the caller
+   * @throws IOException on connection error
+   */
+  public ServerConnection acquire() throws IOException {
+    ServerConnection connection = null;
+    while (true) {
+      IdleConnection entry;
+      synchronized (this) {
+        entry = this.idle.pollFirst();
+      }
+      if (entry == null) break;
+      if (System.currentTimeMillis() - entry.since <= MAX_IDLE_MS && entry.connection.isOpen()) {
+        connection = entry.connection;
+        break;
+      }
+      entry.connection.close();
+    }
+    this.refill();
+    if (connection != null) return connection;
+    return this.connector.connect();
+  }
+
+  /** Closes all idle connections and stops pre-connecting. */
+  public void close() {
+    synchronized (this) {
+      if (this.closed) return;
+      this.closed = true;
+      for (IdleConnection entry : this.idle) {
+        entry.connection.close();
+      }
+      this.idle.clear();
+    }
+    this.executor.shutdownNow();
+  }
+
+  private synchronized void refill() {
+    while (!this.closed && this.idle.size() + this.pending < this.size) {
+      this.pending++;
+      this.executor.execute(this::connectIdle);
+    }
+  }
+
+  private void connectIdle() {
+    ServerConnection connection;
+    try {
+      connection = this.connector.connect();
+    } catch (IOException | RuntimeException ignored) {
+      synchronized (this) {
+        this.pending--;
+      }
+      return;
+    }
+    synchronized (this) {
+      this.pending--;
+      if (!this.closed) {
+        this.addIdle(connection);
+        return;
+      }
+    }
+    connection.close();
+  }
+
+  /**
+   * Replaces an idle connection with a new one before it expires. The old connection is kept if the
+   * new one cannot be made, and the new one is dropped if the old one was taken meanwhile and a
+   * replacement for it is already on the way.
+   *
+   * @param entry idle connection to replace
+   */
+  private void refreshIdle(IdleConnection entry) {
+    synchronized (this) {
+      if (this.closed || !this.idle.contains(entry)) return;
+    }
+    ServerConnection connection;
+    try {
+      connection = this.connector.connect();
+    } catch (IOException | RuntimeException ignored) {
+      return;
+    }
+    ServerConnection stale = connection;
+    synchronized (this) {
+      if (!this.closed && this.idle.remove(entry)) {
+        this.addIdle(connection);
+        stale = entry.connection;
+      } else if (!this.closed && this.idle.size() + this.pending < this.size) {
+        this.addIdle(connection);
+        return;
+      }
+    }
+    stale.close();
+  }
+
+  private synchronized void addIdle(ServerConnection connection) {
+    IdleConnection entry = new IdleConnection(connection);
+    this.idle.addLast(entry);
+    this.executor.schedule(() -> this.refreshIdle(entry), REFRESH_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private static final class IdleConnection {
+    private final ServerConnection connection;
+    private final long since;
+
+    private IdleConnection(ServerConnection connection) {
+      this.connection = connection;
+      this.since = System.currentTimeMillis();
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.netConnection;
+
+import com.clipshare.metrics.TransferMetrics;
+
+/**
+ * Connection settings for one server, tuned from the round trip times and throughput measured on
+ * earlier connections to it. Until a measurement is available, the defaults are used: a 500 ms
+ * connect timeout, 64 KiB chunks and the socket buffer sizes of the operating system.
+ *
+ * <p>The round trip time is estimated from connect times with the smoothed mean and deviation used
+ * for TCP retransmission timeouts, and the throughput from operations large enough to fill the
+ * link. The settings follow from these:
+ *
+ * <ul>
+ *   <li>Socket buffers hold twice the bandwidth-delay product, so that the window does not limit
+ *       the transfer on fast links with long round trips.
+ *   <li>Chunks hold about 10 ms of data, so fast links need fewer calls per byte.
+ *   <li>The connect timeout allows for several round trips plus their deviation. It is doubled
+ *       after each connect that timed out, and recovers as new samples arrive.
+ * </ul>
+ */
+public final class ConnectionProfile {
+
+  static final int DEFAULT_CHUNK_SIZE = 65536;
+  static final int DEFAULT_CONNECT_TIMEOUT_MS = 500;
+  private static final int MIN_CHUNK_SIZE = 16384;
+  private static final int MAX_CHUNK_SIZE = 1048576;
+  private static final int MIN_SOCKET_BUFFER = 65536;
+  private static final int MAX_SOCKET_BUFFER = 4194304;
+  private static final int MIN_CONNECT_TIMEOUT_MS = 250;
+  private static final int MAX_CONNECT_TIMEOUT_MS = 5000;
+  private static final long MIN_THROUGHPUT_BYTES = 262144;
+
+  private long srttMicros;
+  private long rttVarMicros;
+  private long throughput;
+  private int connectTimeoutMs;
+
+  /** Creates a profile with the default settings and no measurements. */
+  public ConnectionProfile() {
+    this(-1, -1, -1, DEFAULT_CONNECT_TIMEOUT_MS);
+  }
+
+  /**
+   * Creates a profile with saved measurements.
+   *
+   * @param srttMicros smoothed round trip time in microseconds, or -1 if not known
+   * @param rttVarMicros round trip time deviation in microseconds, or -1 if not known
+   * @param throughput throughput in bytes per second, or -1 if not known
+   * @param connectTimeoutMs connect timeout in milliseconds
+   */
+  public ConnectionProfile(
+      long srttMicros, long rttVarMicros, long throughput, int connectTimeoutMs) {
+    this.srttMicros = srttMicros;
+    this.rttVarMicros = rttVarMicros;
+    this.throughput = throughput;
+    this.connectTimeoutMs = connectTimeoutMs;
+  }
+
+  /**
+   * Updates the estimates from a closed connection.
+   *
+   * @param metrics metrics of the connection
+   */
+  void record(TransferMetrics metrics) {
+    long connectNanos = metrics.getConnectNanos();
+    long bytes = metrics.getBytesSent() + metrics.getBytesReceived();
+    long rate = metrics.getThroughput();
+    synchronized (this) {
+      if (connectNanos >= 0) this.addRttSample(connectNanos / 1000);
+      if (bytes >= MIN_THROUGHPUT_BYTES && rate > 0) {
+        this.throughput = this.throughput < 0 ? rate : (3 * this.throughput + rate) / 4;
+      }
+    }
+  }
+
+  /**
+   * Updates the round trip time estimate from a connect made outside of a connection, such as a
+   * probe of the server.
+   *
+   * @param rttNanos time taken to connect in nanoseconds
+   */
+  public synchronized void recordRtt(long rttNanos) {
+    this.addRttSample(rttNanos / 1000);
+  }
+
+  private void addRttSample(long rttMicros) {
+    if (this.srttMicros < 0) {
+      this.srttMicros = rttMicros;
+      this.rttVarMicros = rttMicros / 2;
+    } else {
+      this.rttVarMicros = (3 * this.rttVarMicros + Math.abs(this.srttMicros - rttMicros)) / 4;
+      this.srttMicros = (7 * this.srttMicros + rttMicros) / 8;
+    }
+    long timeoutMs = 4 * (this.srttMicros + 4 * this.rttVarMicros) / 1000;
+    int target = (int) clamp(timeoutMs, MIN_CONNECT_TIMEOUT_MS, MAX_CONNECT_TIMEOUT_MS);
+    // Move halfway towards the target, so that a backoff after a timeout decays gradually
+    this.connectTimeoutMs = Math.max(target, (this.connectTimeoutMs + target) / 2);
+  }
+
+  /** Records that a connect attempt timed out, which doubles the connect timeout. */
+  synchronized void recordConnectTimeout() {
+    this.connectTimeoutMs = Math.min(2 * this.connectTimeoutMs, MAX_CONNECT_TIMEOUT_MS);
+  }
+
+  public synchronized int getConnectTimeoutMs() {
+    return this.connectTimeoutMs;
+  }
+
+  /**
+   * Gets the size of the chunks used to copy file data.
+   *
+   * @return chunk size in bytes
+   */
+  public synchronized int getChunkSize() {
+    if (this.throughput < 0) return DEFAULT_CHUNK_SIZE;
+    return (int) roundUp(clamp(this.throughput / 100, MIN_CHUNK_SIZE, MAX_CHUNK_SIZE));
+  }
+
+  /**
+   * Gets the size to request for the socket send and receive buffers.
+   *
+   * @return buffer size in bytes, or 0 to keep the operating system default
+   */
+  public synchronized int getSocketBufferSize() {
+    if (this.throughput < 0 || this.srttMicros < 0) return 0;
+    long bdp = this.throughput * this.srttMicros / 1000000;
+    return (int) roundUp(clamp(2 * bdp, MIN_SOCKET_BUFFER, MAX_SOCKET_BUFFER));
+  }
+
+  public synchronized long getSrttMicros() {
+    return this.srttMicros;
+  }
+
+  public synchronized long getRttVarMicros() {
+    return this.rttVarMicros;
+  }
+
+  public synchronized long getThroughput() {
+    return this.throughput;
+  }
+
+  private static long clamp(long value, long min, long max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static long roundUp(long value) {
+    long power = Long.highestOneBit(value);
+    return power == value ? value : power << 1;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "rtt="
+        + (this.srttMicros < 0 ? "-" : String.format("%.2fms", this.srttMicros / 1000.0))
+        + " throughput="
+        + (this.throughput < 0 ? "-" : String.format("%.1fMB/s", this.throughput / 1e6))
+        + " chunk="
+        + this.getChunkSize()
+        + " sockbuf="
+        + this.getSocketBufferSize()
+        + " connectTimeout="
+        + this.connectTimeoutMs
+        + "ms";
+  }
+}
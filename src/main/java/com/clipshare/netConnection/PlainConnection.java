@@ -24,10 +24,13 @@
 
 package com.clipshare.netConnection;
 
+import com.clipshare.metrics.ConnectEvent;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
 
 public class PlainConnection extends ServerConnection {
 
@@ -39,9 +42,36 @@ public class PlainConnection extends ServerConnection {
    * @throws IOException on socket connection error
    */
   public PlainConnection(InetAddress serverAddress, int port) throws IOException {
-    super(new Socket());
-    this.socket.connect(new InetSocketAddress(serverAddress, port), 500);
+    this(serverAddress, port, new ConnectionProfile());
+  }
+
+  /**
+   * Connects to the server with the settings of a connection profile.
+   *
+   * @param serverAddress address of the server
+   * @param port port on which the server is listening
+   * @param profile profile of the server
+   * @throws IOException on socket connection error
+   */
+  public PlainConnection(InetAddress serverAddress, int port, ConnectionProfile profile)
+      throws IOException {
+    super(SocketChannel.open().socket(), profile);
+    ConnectEvent event = new ConnectEvent();
+    event.begin();
+    try {
+      long start = System.nanoTime();
+      this.socket.connect(
+          new InetSocketAddress(serverAddress, port), profile.getConnectTimeoutMs());
+      this.metrics.recordConnect(System.nanoTime() - start);
+    } catch (IOException ex) {
+      if (ex instanceof SocketTimeoutException) profile.recordConnectTimeout();
+      event.complete(serverAddress, port, "PlainConnection", false);
+      this.close();
+      throw ex;
+    }
+    event.complete(serverAddress, port, "PlainConnection", true);
     this.inStream = this.socket.getInputStream();
-    this.outStream = this.socket.getOutputStream();
+    this.outStream =
+        new BufferedOutputStream(this.meter(this.socket.getOutputStream()), WRITE_BUFFER_SIZE);
   }
 }
@@ -24,29 +24,66 @@
 
 package com.clipshare.netConnection;
 
+import com.clipshare.metrics.ChunkEvent;
+import com.clipshare.metrics.TransferMetrics;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 
+/**
+ * Connection to the server. Data sent is coalesced and written when the connection turns around
+ * to receive, when {@link #flush()} is called or when the connection is closed, so that protocol
+ * headers and small files share segments with the data that follows them. Since writes are only
+ * issued at those points, Nagle's algorithm is disabled to avoid delaying the last segment.
+ */
 public abstract class ServerConnection {
 
+  /** Number of bytes sent that are coalesced before they are written out. */
+  public static final int WRITE_BUFFER_SIZE = 65536;
+
   protected OutputStream outStream;
   protected InputStream inStream;
   protected Socket socket;
+  protected final TransferMetrics metrics = new TransferMetrics();
+  protected final ConnectionProfile profile;
   private boolean closed;
 
   protected ServerConnection() {
     this.socket = null;
+    this.profile = new ConnectionProfile();
     this.closed = false;
   }
 
-  protected ServerConnection(Socket socket) {
+  /**
+   * Sets up a connection on an unconnected socket. The socket buffer sizes of the profile are
+   * applied here, since the receive buffer must be set before connecting to take full effect. They
+   * are only ever raised, since setting a size disables the automatic tuning of the kernel.
+   *
+   * @param socket unconnected socket
+   * @param profile profile of the server, which is updated when the connection is closed
+   */
+  protected ServerConnection(Socket socket, ConnectionProfile profile) {
     this.socket = socket;
+    this.profile = profile;
+    try {
+      socket.setTcpNoDelay(true);
+      int bufferSize = profile.getSocketBufferSize();
+      if (bufferSize > socket.getSendBufferSize()) socket.setSendBufferSize(bufferSize);
+      if (bufferSize > socket.getReceiveBufferSize()) socket.setReceiveBufferSize(bufferSize);
+    } catch (SocketException ignored) {
+    }
   }
 
   /**
-   * Sends length bytes of data from buffer starting at offset to server.
+   * Sends length bytes of data from buffer starting at offset to server. The data may be held back
+   * until the next flush.
    *
    * @param buffer buffer containing data, which should be at least offset+length in size
    * @param offset index of starting byte of buffer
@@ -71,8 +108,11 @@ public abstract class ServerConnection {
    * @return false on success or true on failure
    */
   public boolean receive(byte[] buffer, int offset, int length) {
+    if (this.flush()) return true;
     int remaining = length;
     try {
+      ChunkEvent event = ChunkEvent.start();
+      long start = System.nanoTime();
       while (remaining > 0) {
         int read = inStream.read(buffer, offset, remaining);
         if (read > 0) {
@@ -82,6 +122,8 @@ public abstract class ServerConnection {
           return true;
         }
       }
+      this.metrics.recordReceived(length, System.nanoTime() - start);
+      if (event != null) event.complete(this.getServerAddress(), false, length);
       return false;
     } catch (RuntimeException | IOException ex) {
       return true;
@@ -108,14 +150,174 @@ public abstract class ServerConnection {
     return this.receive(buffer, 0, buffer.length);
   }
 
+  /**
+   * Sends all remaining bytes of buffer to server. On success, the position of buffer is advanced
+   * to its limit.
+   *
+   * @param buffer buffer containing data
+   * @return false on success or true on failure
+   */
+  public boolean send(ByteBuffer buffer) {
+    int length = buffer.remaining();
+    if (buffer.hasArray()) {
+      if (this.send(buffer.array(), buffer.arrayOffset() + buffer.position(), length)) {
+        return true;
+      }
+      buffer.position(buffer.limit());
+      return false;
+    }
+    byte[] data = new byte[length];
+    buffer.get(data);
+    return this.send(data);
+  }
+
+  /**
+   * Receives data from server until buffer has no remaining space. On success, the position of
+   * buffer is advanced to its limit.
+   *
+   * @param buffer buffer to store data
+   * @return false on success or true on failure
+   */
+  public boolean receive(ByteBuffer buffer) {
+    int length = buffer.remaining();
+    if (buffer.hasArray()) {
+      if (this.receive(buffer.array(), buffer.arrayOffset() + buffer.position(), length)) {
+        return true;
+      }
+      buffer.position(buffer.limit());
+      return false;
+    }
+    byte[] data = new byte[length];
+    if (this.receive(data)) return true;
+    buffer.put(data);
+    return false;
+  }
+
+  /**
+   * Writes out all data held back by the send methods. This must be called when the client has
+   * nothing more to send before it waits for the server, unless it receives next, which flushes.
+   *
+   * @return false on success or true on failure
+   */
+  public boolean flush() {
+    if (this.outStream == null) return false;
+    try {
+      this.outStream.flush();
+      return false;
+    } catch (RuntimeException | IOException ex) {
+      return true;
+    }
+  }
+
+  /**
+   * Wraps the output stream of the socket so that every write that reaches the socket is timed and
+   * counted in the metrics. Subclasses that buffer the data they send must buffer on top of the
+   * returned stream, so that the metrics measure the socket writes rather than the copies into the
+   * buffer.
+   *
+   * @param out output stream of the socket
+   * @return output stream that records the writes made to out
+   */
+  protected OutputStream meter(OutputStream out) {
+    return new MeteredOutputStream(out);
+  }
+
+  /**
+   * Gets the address of the server this connection is connected to.
+   *
+   * @return server address or null if not connected
+   */
+  public InetAddress getServerAddress() {
+    if (this.socket == null) return null;
+    return this.socket.getInetAddress();
+  }
+
+  /**
+   * Checks, without blocking, whether the connection is still usable. A connection is not usable if
+   * it was closed, if the server closed it, or if the server sent data that was not requested.
+   *
+   * @return true if the connection is open and idle, or false otherwise
+   */
+  public boolean isOpen() {
+    if (this.socket == null || this.socket.isClosed()) return false;
+    SocketChannel channel = this.socket.getChannel();
+    if (channel == null) return this.socket.isConnected();
+    try {
+      synchronized (channel.blockingLock()) {
+        channel.configureBlocking(false);
+        try {
+          return channel.read(ByteBuffer.allocate(1)) == 0;
+        } finally {
+          channel.configureBlocking(true);
+        }
+      }
+    } catch (RuntimeException | IOException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Gets a channel that writes directly to the server, bypassing the stream layers. This allows
+   * zero-copy transfers with FileChannel.transferTo when the connection supports it. The connection
+   * must be flushed before writing to the channel.
+   *
+   * @return writable channel or null if the connection does not provide one
+   */
+  public WritableByteChannel getWritableChannel() {
+    if (this.socket == null) return null;
+    return this.socket.getChannel();
+  }
+
+  /**
+   * Gets the profile of the server, which gives the settings used for this connection.
+   *
+   * @return connection profile
+   */
+  public ConnectionProfile getProfile() {
+    return this.profile;
+  }
+
+  /**
+   * Gets the metrics of this connection and the operation done on it.
+   *
+   * @return metrics of this connection
+   */
+  public TransferMetrics getMetrics() {
+    return this.metrics;
+  }
+
   public void close() {
     synchronized (this) {
       if (this.closed) return;
       this.closed = true;
     }
+    this.flush();
+    this.metrics.finish();
+    this.profile.record(this.metrics);
     try {
       this.socket.close();
     } catch (RuntimeException | IOException ignored) {
     }
   }
+
+  private final class MeteredOutputStream extends FilterOutputStream {
+
+    private MeteredOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      ChunkEvent event = ChunkEvent.start();
+      long start = System.nanoTime();
+      this.out.write(buffer, offset, length);
+      ServerConnection.this.metrics.recordSent(length, System.nanoTime() - start);
+      if (event != null) event.complete(ServerConnection.this.getServerAddress(), true, length);
+    }
+  }
 }
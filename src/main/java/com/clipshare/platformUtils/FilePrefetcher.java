@@ -0,0 +1,332 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.platformUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the files to be sent ahead of the sender. A background thread opens the next files and
+ * reads their content into a fixed number of chunk buffers, so that disk latency overlaps with
+ * sending. When all buffers are in use, the reader waits until the sender releases one, which
+ * bounds the memory used to the buffer count times the chunk size.
+ *
+ * <p>For each file, the sender gets a header item, which carries the first chunk of content, and
+ * then chunk items for the rest of its size. For large regular files when transfers are allowed,
+ * the header instead carries a file channel to transfer from directly. Inputs of unknown size are
+ * buffered in a {@link SpillBuffer} to find their size.
+ */
+public class FilePrefetcher {
+
+  private static final int QUEUE_SIZE = 64;
+  private static final int BUFFER_COUNT = 4;
+  private static final Item ERROR = new Item(null, -1, null, null, null, 0);
+
+  private final Utils utils;
+  private final int fileCount;
+  private final boolean includeLeafDirs;
+  private final int chunkSize;
+  private final long minTransferSize;
+  private final long maxFileSize;
+  private final ArrayBlockingQueue<Item> queue;
+  private final ArrayBlockingQueue<byte[]> freeBuffers;
+  private final Thread thread;
+  private int allocatedBuffers;
+  private volatile boolean closed;
+
+  /**
+   * Starts reading ahead.
+   *
+   * @param utils prepared file source
+   * @param fileCount number of entries to read
+   * @param includeLeafDirs whether to include directories without any content
+   * @param chunkSize size of the chunk buffers
+   * @param minTransferSize size from which regular files are passed as channels, or -1 to always
+   *     read them into chunks
+   * @param maxFileSize maximum size of an input of unknown size
+   */
+  public FilePrefetcher(
+      Utils utils,
+      int fileCount,
+      boolean includeLeafDirs,
+      int chunkSize,
+      long minTransferSize,
+      long maxFileSize) {
+    this.utils = utils;
+    this.fileCount = fileCount;
+    this.includeLeafDirs = includeLeafDirs;
+    this.chunkSize = chunkSize;
+    this.minTransferSize = minTransferSize;
+    this.maxFileSize = maxFileSize;
+    this.queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    this.freeBuffers = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    this.closed = false;
+    this.thread = new Thread(this::read, "file-prefetcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Gets the next item, waiting for the reader if needed.
+   *
+   * @return next item or null if reading failed or the prefetcher was closed
+   */
+  public Item next() {
+    try {
+      while (!this.closed) {
+        Item item = this.queue.poll(500, TimeUnit.MILLISECONDS);
+        if (item == ERROR) return null;
+        if (item != null) return item;
+      }
+    } catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
+  /**
+   * Returns the buffer of a chunk item for reuse, or closes the file of a channel item. The item
+   * must not be used after this.
+   *
+   * @param item item obtained from next()
+   */
+  public void release(Item item) {
+    if (item.buffer != null) this.freeBuffers.offer(item.buffer);
+    closeQuietly(item.source);
+  }
+
+  /** Stops reading ahead and closes the files handed over to items that were not taken. */
+  public void close() {
+    this.closed = true;
+    try {
+      this.thread.join();
+    } catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+    }
+    Item item;
+    while ((item = this.queue.poll()) != null) {
+      closeQuietly(item.source);
+    }
+  }
+
+  private void read() {
+    try {
+      for (int fileNum = 0; fileNum < this.fileCount; fileNum++) {
+        if (!this.readEntry()) {
+          this.put(ERROR);
+          return;
+        }
+      }
+    } catch (IOException | RuntimeException ignored) {
+      this.put(ERROR);
+    }
+  }
+
+  /**
+   * Reads the next entry into the queue.
+   *
+   * @return true on success or false on error
+   */
+  private boolean readEntry() throws IOException {
+    if (!this.utils.prepareNextFile(this.includeLeafDirs)) return false;
+    String name = this.utils.getFileName();
+    long size = this.utils.getFileSize();
+    FileChannel channel = this.utils.getFileChannel();
+    InputStream in = this.utils.getFileInStream();
+    if (size == -1 && in != null) {
+      SpillBuffer buffered = new SpillBuffer();
+      try {
+        size = buffered.readFrom(in, this.maxFileSize);
+        if (size < 0) return this.put(new Item(name, size, null, null, null, 0));
+        return this.readChunks(name, buffered.getInputStream(), size);
+      } finally {
+        buffered.close();
+      }
+    }
+    if (size < 0) return this.put(new Item(name, size, null, null, null, 0));
+    if (in == null) return false;
+    if (channel != null && this.minTransferSize >= 0 && size >= this.minTransferSize) {
+      InputStream owned = this.utils.takeFileInStream();
+      if (!this.put(new Item(name, size, channel, owned, null, 0))) {
+        closeQuietly(owned);
+        return false;
+      }
+      return true;
+    }
+    return this.readChunks(name, in, size);
+  }
+
+  /**
+   * Reads the content of a file into the queue, with the first chunk in the header item.
+   *
+   * @return true on success or false on error
+   */
+  private boolean readChunks(String name, InputStream in, long size) throws IOException {
+    if (size == 0) return this.put(new Item(name, 0, null, null, null, 0));
+    long fileSize = size;
+    while (size > 0) {
+      byte[] buffer = this.takeBuffer();
+      if (buffer == null) return false;
+      int length = (int) Math.min(size, buffer.length);
+      int filled = 0;
+      while (filled < length) {
+        int read = in.read(buffer, filled, length - filled);
+        if (read < 0) {
+          this.freeBuffers.offer(buffer);
+          return false;
+        }
+        filled += read;
+      }
+      Item item = new Item(name, name != null ? fileSize : -1, null, null, buffer, filled);
+      if (!this.put(item)) return false;
+      name = null;
+      size -= filled;
+    }
+    return true;
+  }
+
+  private byte[] takeBuffer() {
+    byte[] buffer = this.freeBuffers.poll();
+    if (buffer != null) return buffer;
+    if (this.allocatedBuffers < BUFFER_COUNT) {
+      this.allocatedBuffers++;
+      return new byte[this.chunkSize];
+    }
+    try {
+      while (!this.closed) {
+        buffer = this.freeBuffers.poll(500, TimeUnit.MILLISECONDS);
+        if (buffer != null) return buffer;
+      }
+    } catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
+  private boolean put(Item item) {
+    try {
+      while (!this.closed) {
+        if (this.queue.offer(item, 500, TimeUnit.MILLISECONDS)) return true;
+      }
+    } catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      if (closeable != null) closeable.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  /**
+   * A file header or a chunk of file content. A header has a name, and is followed by the rest of
+   * the content of the file unless it is a directory or has a channel.
+   */
+  public static final class Item {
+    private final String name;
+    private final long size;
+    private final FileChannel channel;
+    private final Closeable source;
+    private final byte[] buffer;
+    private final int length;
+
+    private Item(
+        String name,
+        long size,
+        FileChannel channel,
+        Closeable source,
+        byte[] buffer,
+        int length) {
+      this.name = name;
+      this.size = size;
+      this.channel = channel;
+      this.source = source;
+      this.buffer = buffer;
+      this.length = length;
+    }
+
+    /**
+     * Checks whether this item starts a file or directory, rather than holding a further chunk of
+     * the file before it.
+     *
+     * @return true for a header or false for a chunk
+     */
+    public boolean isHeader() {
+      return this.name != null;
+    }
+
+    /**
+     * Gets the name of the file of a header.
+     *
+     * @return path relative to the parent of its root
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * Gets the size of the file of a header.
+     *
+     * @return size in bytes, or a negative value for a directory
+     */
+    public long getSize() {
+      return this.size;
+    }
+
+    /**
+     * Gets the channel to transfer the file of a header from.
+     *
+     * @return file channel or null if the content follows in chunks
+     */
+    public FileChannel getChannel() {
+      return this.channel;
+    }
+
+    /**
+     * Gets the buffer holding the content of a chunk, or the first chunk of a header.
+     *
+     * @return buffer, or null if the item holds no content
+     */
+    public byte[] getBuffer() {
+      return this.buffer;
+    }
+
+    /**
+     * Gets the number of bytes of content held in the buffer.
+     *
+     * @return length in bytes, or 0 if the item holds no content
+     */
+    public int getLength() {
+      return this.length;
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.platformUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks the files and directories to be sent, lazily and in depth-first order. A background thread
+ * reads ahead into a bounded queue, so that directory listing and file stats overlap with sending.
+ * Regular files and other non-directories are reported with their size, and directories without
+ * any content are reported as leaf directories. Symbolic links to directories below the given
+ * roots are not followed.
+ */
+public class FileTreeWalker {
+
+  private static final int QUEUE_SIZE = 1024;
+  private static final Entry END = new Entry(null, null, 0);
+
+  private final File[] roots;
+  private final ArrayBlockingQueue<Entry> queue;
+  private Thread thread;
+  private volatile boolean closed;
+  private boolean ended;
+
+  public FileTreeWalker(File[] roots) {
+    this.roots = roots;
+    this.queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    this.closed = false;
+    this.ended = false;
+  }
+
+  /**
+   * Counts the entries that the walker will produce for the given roots, walking directories in
+   * parallel on the common fork-join pool.
+   *
+   * @param roots files and directories to count
+   * @return counts of files, leaf directories, and total bytes of files
+   */
+  public static Counts count(File... roots) {
+    List<CountTask> tasks = new ArrayList<>(roots.length);
+    Counts counts = new Counts();
+    for (File root : roots) {
+      if (root.isDirectory()) {
+        tasks.add(new CountTask(root));
+      } else {
+        counts.files++;
+        counts.bytes += root.length();
+      }
+    }
+    for (CountTask task : tasks) {
+      task.fork();
+    }
+    for (CountTask task : tasks) {
+      counts.add(task.join());
+    }
+    return counts;
+  }
+
+  /**
+   * Gets the next entry, waiting for the background walk if needed.
+   *
+   * @return next entry or null if there are no more entries or the walker was closed
+   */
+  public Entry next() {
+    if (this.ended || this.closed) return null;
+    if (this.thread == null) {
+      this.thread = new Thread(this::walk, "file-tree-walker");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+    try {
+      Entry entry = this.queue.take();
+      if (entry == END) {
+        this.ended = true;
+        return null;
+      }
+      return entry;
+    } catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /** Stops the background walk. */
+  public void close() {
+    this.closed = true;
+    this.queue.clear();
+  }
+
+  private void walk() {
+    for (File root : this.roots) {
+      if (!root.isDirectory()) {
+        if (!this.put(new Entry(root, root.getName(), root.length()))) return;
+        continue;
+      }
+      Path name = root.getAbsoluteFile().toPath().normalize().getFileName();
+      String prefix = name == null ? "" : name.toString();
+      if (!this.walkDirectory(root, prefix)) return;
+    }
+    this.put(END);
+  }
+
+  private boolean walkDirectory(File root, String rootPath) {
+    ArrayDeque<Entry> stack = new ArrayDeque<>();
+    stack.push(new Entry(root, rootPath, -1));
+    while (!stack.isEmpty()) {
+      Entry dir = stack.pop();
+      File[] children = listChildren(dir.file);
+      if (children.length == 0) {
+        if (!this.put(dir)) return false;
+        continue;
+      }
+      for (int i = children.length - 1; i >= 0; i--) {
+        File child = children[i];
+        String path = dir.path.isEmpty() ? child.getName() : dir.path + "/" + child.getName();
+        if (child.isDirectory()) {
+          stack.push(new Entry(child, path, -1));
+        } else if (!this.put(new Entry(child, path, child.length()))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Lists the entries of a directory that the walker visits, skipping symbolic links to
+   * directories.
+   */
+  private static File[] listChildren(File dir) {
+    File[] children = dir.listFiles();
+    if (children == null) return new File[0];
+    int cnt = 0;
+    for (File child : children) {
+      if (child.isDirectory() && Files.isSymbolicLink(child.toPath())) continue;
+      children[cnt++] = child;
+    }
+    if (cnt == children.length) return children;
+    File[] filtered = new File[cnt];
+    System.arraycopy(children, 0, filtered, 0, cnt);
+    return filtered;
+  }
+
+  private boolean put(Entry entry) {
+    try {
+      while (!this.closed) {
+        if (this.queue.offer(entry, 500, TimeUnit.MILLISECONDS)) return true;
+      }
+    } catch (InterruptedException ignored) {
+    }
+    return false;
+  }
+
+  /** A file or leaf directory to be sent. */
+  public static final class Entry {
+    private final File file;
+    private final String path;
+    private final long size;
+
+    private Entry(File file, String path, long size) {
+      this.file = file;
+      this.path = path;
+      this.size = size;
+    }
+
+    public File getFile() {
+      return this.file;
+    }
+
+    /**
+     * Gets the path relative to the parent of its root, using '/' as the separator.
+     *
+     * @return relative path
+     */
+    public String getPath() {
+      return this.path;
+    }
+
+    /**
+     * Gets the size of the file.
+     *
+     * @return size in bytes or -1 for a leaf directory
+     */
+    public long getSize() {
+      return this.size;
+    }
+
+    public boolean isDirectory() {
+      return this.size < 0;
+    }
+  }
+
+  /** Number of entries and bytes under a set of roots. */
+  public static final class Counts {
+    private long files;
+    private long leafDirs;
+    private long bytes;
+
+    /**
+     * Adds the counts of other to these counts.
+     *
+     * @param other counts to add
+     */
+    public void add(Counts other) {
+      this.files += other.files;
+      this.leafDirs += other.leafDirs;
+      this.bytes += other.bytes;
+    }
+
+    public long getFiles() {
+      return this.files;
+    }
+
+    public long getLeafDirs() {
+      return this.leafDirs;
+    }
+
+    public long getBytes() {
+      return this.bytes;
+    }
+  }
+
+  private static final class CountTask extends RecursiveTask<Counts> {
+    private static final long serialVersionUID = 1L;
+
+    private final File dir;
+
+    private CountTask(File dir) {
+      this.dir = dir;
+    }
+
+    @Override
+    protected Counts compute() {
+      Counts counts = new Counts();
+      File[] children = listChildren(this.dir);
+      if (children.length == 0) {
+        counts.leafDirs++;
+        return counts;
+      }
+      List<CountTask> subTasks = new ArrayList<>();
+      for (File child : children) {
+        if (child.isDirectory()) {
+          CountTask task = new CountTask(child);
+          task.fork();
+          subTasks.add(task);
+        } else {
+          counts.files++;
+          counts.bytes += child.length();
+        }
+      }
+      for (CountTask task : subTasks) {
+        counts.add(task.join());
+      }
+      return counts;
+    }
+  }
+}
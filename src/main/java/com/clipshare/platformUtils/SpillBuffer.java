@@ -0,0 +1,202 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.platformUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * A growable byte buffer made of fixed size chunks. When its content grows beyond a memory
+ * threshold, the content is moved to a temporary file and further writes go to that file. This is
+ * used to find the exact size of inputs whose size is not known in advance.
+ */
+public class SpillBuffer extends OutputStream {
+
+  private static final int CHUNK_SIZE = 65536;
+  private static final long DEFAULT_MEMORY_LIMIT = 16777216; // 16 MiB
+
+  private final long memoryLimit;
+  private final ArrayList<byte[]> chunks;
+  private long size;
+  private File spillFile;
+  private OutputStream spillOut;
+  private FileInputStream spillIn;
+
+  /**
+   * Creates an empty buffer.
+   *
+   * @param memoryLimit number of bytes kept in memory before spilling to a temporary file
+   */
+  public SpillBuffer(long memoryLimit) {
+    this.memoryLimit = memoryLimit;
+    this.chunks = new ArrayList<>(16);
+    this.size = 0;
+  }
+
+  public SpillBuffer() {
+    this(DEFAULT_MEMORY_LIMIT);
+  }
+
+  /**
+   * Reads the input stream until its end and appends everything read to this buffer.
+   *
+   * @param in input stream to read
+   * @param maxSize maximum number of bytes the buffer may hold
+   * @return size of the buffer after reading
+   * @throws IOException on read or write error, or if the input is larger than maxSize
+   */
+  public long readFrom(InputStream in, long maxSize) throws IOException {
+    byte[] buf = new byte[CHUNK_SIZE];
+    int read;
+    while ((read = in.read(buf)) >= 0) {
+      if (this.size + read > maxSize) throw new IOException("Input is too large");
+      this.write(buf, 0, read);
+    }
+    return this.size;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    this.write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (this.spillIn != null) throw new IOException("Buffer is already being read");
+    if (this.spillOut == null && this.size + len > this.memoryLimit) {
+      this.spill();
+    }
+    if (this.spillOut != null) {
+      this.spillOut.write(b, off, len);
+      this.size += len;
+      return;
+    }
+    while (len > 0) {
+      int chunkOffset = (int) (this.size % CHUNK_SIZE);
+      if (chunkOffset == 0) this.chunks.add(new byte[CHUNK_SIZE]);
+      byte[] chunk = this.chunks.get(this.chunks.size() - 1);
+      int count = Math.min(len, CHUNK_SIZE - chunkOffset);
+      System.arraycopy(b, off, chunk, chunkOffset, count);
+      off += count;
+      len -= count;
+      this.size += count;
+    }
+  }
+
+  private void spill() throws IOException {
+    this.spillFile = File.createTempFile("clipshare", ".tmp");
+    this.spillFile.deleteOnExit();
+    this.spillOut = new FileOutputStream(this.spillFile);
+    long remaining = this.size;
+    for (byte[] chunk : this.chunks) {
+      int count = (int) Math.min(remaining, CHUNK_SIZE);
+      this.spillOut.write(chunk, 0, count);
+      remaining -= count;
+    }
+    this.chunks.clear();
+  }
+
+  /**
+   * Gets the exact number of bytes written to the buffer.
+   *
+   * @return size in bytes
+   */
+  public long size() {
+    return this.size;
+  }
+
+  /**
+   * Gets a stream to read the content of the buffer from the beginning. No more data can be written
+   * after calling this.
+   *
+   * @return input stream of the buffered content
+   * @throws IOException if the temporary file cannot be read
+   */
+  public InputStream getInputStream() throws IOException {
+    if (this.spillOut == null) return new ChunkInputStream();
+    if (this.spillIn == null) {
+      this.spillOut.close();
+      this.spillIn = new FileInputStream(this.spillFile);
+    }
+    return this.spillIn;
+  }
+
+  /**
+   * Gets the channel of the stream returned by getInputStream(), if the content was spilled to a
+   * file. This can be used for zero-copy transfers.
+   *
+   * @return file channel or null if the content is held in memory
+   */
+  public FileChannel getFileChannel() {
+    if (this.spillIn == null) return null;
+    return this.spillIn.getChannel();
+  }
+
+  /** Releases the memory and deletes the temporary file, if any. */
+  @Override
+  public void close() {
+    this.chunks.clear();
+    try {
+      if (this.spillOut != null) this.spillOut.close();
+      if (this.spillIn != null) this.spillIn.close();
+    } catch (IOException ignored) {
+    }
+    // A file that cannot be deleted now is deleted on exit, since it was registered for that
+    if (this.spillFile != null && this.spillFile.delete()) this.spillFile = null;
+  }
+
+  private class ChunkInputStream extends InputStream {
+    private long position = 0;
+
+    @Override
+    public int read() {
+      byte[] b = new byte[1];
+      return this.read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (this.position >= size) return -1;
+      if (len == 0) return 0;
+      int chunkOffset = (int) (this.position % CHUNK_SIZE);
+      byte[] chunk = chunks.get((int) (this.position / CHUNK_SIZE));
+      int count = (int) Math.min(Math.min(len, CHUNK_SIZE - chunkOffset), size - this.position);
+      System.arraycopy(chunk, chunkOffset, b, off, count);
+      this.position += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(size - this.position, Integer.MAX_VALUE);
+    }
+  }
+}
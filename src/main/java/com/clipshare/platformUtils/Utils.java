@@ -30,8 +30,7 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
 import java.io.*;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.nio.channels.FileChannel;
 import java.util.Random;
 
 public class Utils {
@@ -41,11 +40,16 @@ public class Utils {
   private InputStream inStream;
   private final long id;
   private static final Clipboard clip = Toolkit.getDefaultToolkit().getSystemClipboard();
-  private LinkedList<File> pendingFiles;
+  private File[] pendingRoots;
+  private FileTreeWalker walker;
+  private long remainingFiles;
+  private long remainingLeafDirs;
 
   public Utils(File[] files) {
-    this.pendingFiles = new LinkedList<>();
-    this.pendingFiles.addAll(Arrays.asList(files));
+    this.pendingRoots = files;
+    this.walker = new FileTreeWalker(files);
+    this.remainingFiles = -1;
+    this.remainingLeafDirs = -1;
     Random rnd = new Random();
     long idNum = Math.abs(rnd.nextLong());
     File file;
@@ -57,6 +61,20 @@ public class Utils {
     this.id = idNum;
   }
 
+  /**
+   * Creates an instance for sending files whose entries were already counted, so that the counts
+   * are not taken again by walking the directories.
+   *
+   * @param files files and directories to send
+   * @param counts counts of the entries under files, as given by FileTreeWalker.count
+   */
+  public Utils(File[] files, FileTreeWalker.Counts counts) {
+    this(files);
+    this.remainingFiles = counts.getFiles();
+    this.remainingLeafDirs = counts.getLeafDirs();
+    this.pendingRoots = null;
+  }
+
   public Utils() {
     this.fileSize = -1;
     this.fileName = null;
@@ -128,9 +146,23 @@ public class Utils {
     return fp.mkdirs();
   }
 
+  /**
+   * Gets the number of entries that are not sent yet. Directories given to the constructor are
+   * counted recursively, in parallel, the first time this is called.
+   *
+   * @param includeLeafDirs whether to count directories without any content
+   * @return number of remaining entries or -1 if this instance is not for sending files
+   */
   public int getRemainingFileCount(boolean includeLeafDirs) {
-    if (this.pendingFiles != null) return this.pendingFiles.size();
-    return -1;
+    if (this.walker == null) return -1;
+    if (this.remainingFiles < 0) {
+      FileTreeWalker.Counts counts = FileTreeWalker.count(this.pendingRoots);
+      this.remainingFiles = counts.getFiles();
+      this.remainingLeafDirs = counts.getLeafDirs();
+      this.pendingRoots = null;
+    }
+    long count = this.remainingFiles + (includeLeafDirs ? this.remainingLeafDirs : 0);
+    return (int) Math.max(0, Math.min(count, Integer.MAX_VALUE));
   }
 
   public int getRemainingFileCount() {
@@ -161,12 +193,34 @@ public class Utils {
     return status;
   }
 
+  /**
+   * Prepares the next entry to be sent. Files in directories are named by their path relative to
+   * the parent of the directory given to the constructor. A leaf directory has size -1 and no input
+   * stream.
+   *
+   * @param includeLeafDirs whether to prepare directories without any content, or skip them
+   * @return true on success or false if there are no more entries or the file cannot be opened
+   */
   public boolean prepareNextFile(boolean includeLeafDirs) {
     try {
-      if (this.pendingFiles == null || this.pendingFiles.isEmpty()) return false;
-      File f = this.pendingFiles.pop();
-      this.fileName = f.getName();
-      this.fileSize = f.length();
+      if (this.walker == null) return false;
+      this.getRemainingFileCount(includeLeafDirs);
+      this.closeInStream();
+      FileTreeWalker.Entry entry;
+      while ((entry = this.walker.next()) != null) {
+        if (!entry.isDirectory()) break;
+        this.remainingLeafDirs--;
+        if (includeLeafDirs) {
+          this.fileName = entry.getPath();
+          this.fileSize = -1;
+          return true;
+        }
+      }
+      if (entry == null) return false;
+      this.remainingFiles--;
+      File f = entry.getFile();
+      this.fileName = entry.getPath();
+      this.fileSize = f.isFile() ? entry.getSize() : -1;
       this.inStream = new FileInputStream(f);
       return true;
     } catch (Exception ignored) {
@@ -178,6 +232,20 @@ public class Utils {
     return prepareNextFile(false);
   }
 
+  /** Closes the prepared file and stops walking the remaining files, if any. */
+  public void close() {
+    this.closeInStream();
+    if (this.walker != null) this.walker.close();
+  }
+
+  private void closeInStream() {
+    try {
+      if (this.inStream != null) this.inStream.close();
+    } catch (IOException ignored) {
+    }
+    this.inStream = null;
+  }
+
   public String getFileName() {
     return this.fileName;
   }
@@ -189,4 +257,28 @@ public class Utils {
   public InputStream getFileInStream() {
     return this.inStream;
   }
+
+  /**
+   * Gets the input stream of the prepared file and passes its ownership to the caller, who must
+   * close it. The stream is then no longer closed when the next file is prepared.
+   *
+   * @return input stream or null if there is none
+   */
+  public InputStream takeFileInStream() {
+    InputStream in = this.getFileInStream();
+    this.inStream = null;
+    return in;
+  }
+
+  /**
+   * Gets the channel of the prepared file, which can be used for zero-copy transfers.
+   *
+   * @return file channel or null if the prepared input is not a regular file
+   */
+  public FileChannel getFileChannel() {
+    if (this.inStream instanceof FileInputStream) {
+      return ((FileInputStream) this.inStream).getChannel();
+    }
+    return null;
+  }
 }
@@ -0,0 +1,191 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import com.clipshare.netConnection.ServerConnection;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes the protocol fields of one connection. The codec owns reusable buffers for
+ * the method and status bytes, sizes, names and file data, so that a steady-state transfer loop
+ * does not allocate other than for the name strings it returns. Strings longer than the name
+ * buffer, such as large texts, use buffers of their own.
+ */
+final class ProtoCodec {
+  private static final int NAME_BUF_SZ = 8192;
+  private static final int MAX_STRING_LENGTH = 16777215;
+
+  private final ServerConnection serverConnection;
+  private final ByteBuffer header;
+  private final byte[] name;
+  private final ByteBuffer nameBuffer;
+  private final char[] nameChars;
+  private final CharBuffer nameCharBuffer;
+  private final CharsetEncoder encoder;
+  private byte[] payload;
+
+  ProtoCodec(ServerConnection serverConnection) {
+    this.serverConnection = serverConnection;
+    this.header = ByteBuffer.allocate(Long.BYTES);
+    this.name = new byte[NAME_BUF_SZ];
+    this.nameBuffer = ByteBuffer.wrap(this.name);
+    this.nameChars = new char[NAME_BUF_SZ];
+    this.nameCharBuffer = CharBuffer.wrap(this.nameChars);
+    this.encoder =
+        StandardCharsets.UTF_8
+            .newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * Sends a single byte to server, such as a method code.
+   *
+   * @param value byte to be sent
+   * @return false on success or true on error
+   */
+  boolean sendByte(byte value) {
+    this.header.clear();
+    this.header.put(value).flip();
+    return this.serverConnection.send(this.header);
+  }
+
+  /**
+   * Reads a single byte from server, such as a status code.
+   *
+   * @return byte received as an unsigned value, or -1 on error
+   */
+  int readByte() {
+    this.header.clear();
+    this.header.limit(1);
+    if (this.serverConnection.receive(this.header)) return -1;
+    return this.header.get(0) & 0xff;
+  }
+
+  /**
+   * Reads a 64-bit signed integer from server
+   *
+   * @throws IOException on failure
+   * @return integer received
+   */
+  long readSize() throws IOException {
+    this.header.clear();
+    if (this.serverConnection.receive(this.header)) {
+      throw new IOException();
+    }
+    return this.header.getLong(0);
+  }
+
+  /**
+   * Sends a 64-bit signed integer to server
+   *
+   * @param size value to be sent
+   * @return false on success or true on error
+   */
+  boolean sendSize(long size) {
+    this.header.clear();
+    this.header.putLong(0, size);
+    return this.serverConnection.send(this.header);
+  }
+
+  /**
+   * Reads a non-empty String, encoded with UTF-8, from server
+   *
+   * @param maxSize maximum size to read
+   * @return read string or null on error
+   */
+  String readString(int maxSize) {
+    long size;
+    try {
+      size = this.readSize();
+    } catch (IOException ignored) {
+      return null;
+    }
+    if (size <= 0 || size > maxSize) {
+      return null;
+    }
+    int length = (int) size;
+    byte[] data = length <= this.name.length ? this.name : new byte[length];
+    if (this.serverConnection.receive(data, 0, length)) {
+      return null;
+    }
+    return new String(data, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Sends a String encoded with UTF-8 to server, preceded by its length in bytes
+   *
+   * @param data String to be sent
+   * @return false on success or true on error
+   */
+  boolean sendString(String data) {
+    if (data == null) return true;
+    ByteBuffer encoded = this.encodeName(data);
+    if (encoded == null) encoded = ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    if (encoded.remaining() > MAX_STRING_LENGTH) return true;
+    if (this.sendSize(encoded.remaining())) return true;
+    return this.serverConnection.send(encoded);
+  }
+
+  /**
+   * Encodes a String into the name buffer.
+   *
+   * @param data String to be encoded
+   * @return name buffer holding the encoded bytes, or null if they do not fit
+   */
+  private ByteBuffer encodeName(String data) {
+    int length = data.length();
+    if (length > this.nameChars.length) return null;
+    data.getChars(0, length, this.nameChars, 0);
+    this.nameCharBuffer.clear();
+    this.nameCharBuffer.limit(length);
+    this.nameBuffer.clear();
+    this.encoder.reset();
+    CoderResult result = this.encoder.encode(this.nameCharBuffer, this.nameBuffer, true);
+    if (!result.isUnderflow()) return null;
+    if (!this.encoder.flush(this.nameBuffer).isUnderflow()) return null;
+    this.nameBuffer.flip();
+    return this.nameBuffer;
+  }
+
+  /**
+   * Gets the buffer used to copy file data. It is allocated on first use, with the chunk size of
+   * the connection profile, and kept for the life of the connection.
+   *
+   * @return payload buffer
+   */
+  byte[] getPayloadBuffer() {
+    if (this.payload == null) {
+      this.payload = new byte[this.serverConnection.getProfile().getChunkSize()];
+    }
+    return this.payload;
+  }
+}
@@ -24,15 +24,18 @@
 
 package com.clipshare.protocol;
 
+import com.clipshare.metrics.ChunkEvent;
+import com.clipshare.metrics.MethodEvent;
+import com.clipshare.metrics.TransferMetrics;
 import com.clipshare.netConnection.ServerConnection;
+import com.clipshare.platformUtils.FilePrefetcher;
+import com.clipshare.platformUtils.SpillBuffer;
 import com.clipshare.platformUtils.Utils;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public final class ProtoMethods {
   private static final int MAX_TEXT_LENGTH = 4194304; // 4 MiB
@@ -46,17 +49,34 @@ public final class ProtoMethods {
   private static final byte GET_IMAGE = 5;
   private static final byte GET_COPIED_IMAGE = 6;
   private static final byte GET_SCREENSHOT = 7;
-  private static final byte INFO = 125;
+  static final byte INFO = 125;
 
-  private static final byte STATUS_OK = 1;
-  private static final int BUF_SZ = 65536;
+  static final byte STATUS_OK = 1;
+  private static final boolean PIPELINE_SENDS = Boolean.getBoolean("clipshare.sendPipeline");
 
   private final ServerConnection serverConnection;
+  private final TransferMetrics metrics;
+  private MethodEvent methodEvent;
   private final Utils utils;
+  private final ProtoCodec codec;
+  private boolean pipelined;
 
   ProtoMethods(ServerConnection serverConnection, Utils utils) {
     this.serverConnection = serverConnection;
+    this.metrics = serverConnection.getMetrics();
     this.utils = utils;
+    this.codec = new ProtoCodec(serverConnection);
+    this.pipelined = PIPELINE_SENDS;
+  }
+
+  /**
+   * Selects whether files are sent with a FilePrefetcher reading ahead or read and sent in turn on
+   * the calling thread.
+   *
+   * @param pipelined true to read ahead
+   */
+  void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
   }
 
   String v1_getText() {
@@ -73,7 +93,7 @@ public final class ProtoMethods {
     if (methodInit(SEND_TEXT)) {
       return false;
     }
-    return !sendString(text);
+    return !sendString(text) && !this.serverConnection.flush();
   }
 
   boolean v1_getFiles() {
@@ -103,25 +123,8 @@ public final class ProtoMethods {
     if (sendSize(fileSize)) {
       return false;
     }
-    byte[] buf = new byte[BUF_SZ];
-    while (fileSize > 0) {
-      int read_sz = (int) Math.min(fileSize, BUF_SZ);
-      try {
-        read_sz = inStream.read(buf, 0, read_sz);
-      } catch (IOException ex) {
-        return false;
-      }
-      if (read_sz < 0) {
-        return true;
-      } else if (read_sz == 0) {
-        continue;
-      }
-      fileSize -= read_sz;
-      if (this.serverConnection.send(buf, 0, read_sz)) {
-        return false;
-      }
-    }
-    return true;
+    return sendFileData(inStream, utils.getFileChannel(), fileSize) >= 0
+        && !this.serverConnection.flush();
   }
 
   boolean v1_getImage() {
@@ -185,18 +188,8 @@ public final class ProtoMethods {
     if (out == null) {
       return false;
     }
-    byte[] buf = new byte[BUF_SZ];
-    while (file_size > 0) {
-      int read_sz = (int) Math.min(file_size, BUF_SZ);
-      if (this.serverConnection.receive(buf, 0, read_sz)) {
-        return false;
-      }
-      file_size -= read_sz;
-      try {
-        out.write(buf, 0, read_sz);
-      } catch (IOException ex) {
-        return false;
-      }
+    if (receiveFileData(out, file_size)) {
+      return false;
     }
     try {
       out.close();
@@ -210,7 +203,7 @@ public final class ProtoMethods {
     return getImageCommon(method, 0);
   }
 
-  private boolean getFilesCommon(int version) {
+  boolean getFilesCommon(int version) {
     if (methodInit(GET_FILE)) {
       return false;
     }
@@ -254,20 +247,8 @@ public final class ProtoMethods {
         status = false;
         break;
       }
-      byte[] buf = new byte[BUF_SZ];
-      while (file_size > 0) {
-        int read_sz = (int) Math.min(file_size, BUF_SZ);
-        if (this.serverConnection.receive(buf, 0, read_sz)) {
-          status = false;
-          break;
-        }
-        file_size -= read_sz;
-        try {
-          out.write(buf, 0, read_sz);
-        } catch (IOException ex) {
-          status = false;
-          break;
-        }
+      if (receiveFileData(out, file_size)) {
+        status = false;
       }
       try {
         out.close();
@@ -284,37 +265,29 @@ public final class ProtoMethods {
     if (methodInit(SEND_FILE)) {
       return false;
     }
+    if (sendSize(fileCnt)) {
+      return false;
+    }
+    if (this.pipelined) return sendPrefetchedFiles(version, fileCnt);
+    SpillBuffer buffered = null;
     try {
-      if (sendSize(fileCnt)) {
-        return false;
-      }
       for (int fileNum = 0; fileNum < fileCnt; fileNum++) {
-        utils.prepareNextFile(version >= 3);
+        if (!utils.prepareNextFile(version >= 3)) {
+          return false;
+        }
         String fileName = utils.getFileName();
         if (fileName == null || fileName.isEmpty()) {
           return false;
         }
         long fileSize = utils.getFileSize();
         InputStream inStream = utils.getFileInStream();
+        FileChannel fileChannel = utils.getFileChannel();
         if (fileSize == -1 && inStream != null) {
-          ArrayList<Byte> tmpList = new ArrayList<>(8192);
-          byte[] tmpArray = new byte[8192];
-          while (true) {
-            int read = inStream.read(tmpArray);
-            if (read < 0) break;
-            List<Byte> boxed = new ArrayList<>(read);
-            for (int i = 0; i < read; i++) {
-              boxed.add(tmpArray[i]);
-            }
-            tmpList.addAll(boxed);
-            if (tmpList.size() > 16777216) throw new Exception("Cannot determine file size");
-          }
-          byte[] bytes = new byte[tmpList.size()];
-          for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = tmpList.get(i);
-          }
-          fileSize = bytes.length;
-          inStream = new ByteArrayInputStream(bytes);
+          if (buffered != null) buffered.close();
+          buffered = new SpillBuffer();
+          fileSize = buffered.readFrom(inStream, MAX_FILE_SIZE);
+          inStream = buffered.getInputStream();
+          fileChannel = buffered.getFileChannel();
         }
         if (fileSize < 0) {
           if (version == 2) return false;
@@ -333,35 +306,184 @@ public final class ProtoMethods {
         if (sendSize(fileSize)) {
           return false;
         }
-        byte[] buf = new byte[BUF_SZ];
-        while (fileSize > 0) {
-          int read_sz = (int) Math.min(fileSize, BUF_SZ);
-          try {
-            read_sz = inStream.read(buf, 0, read_sz);
-          } catch (IOException ex) {
+        if (sendFileData(inStream, fileChannel, fileSize) != 0) {
+          return false;
+        }
+      }
+    } catch (Exception ignored) {
+      return false;
+    } finally {
+      if (buffered != null) buffered.close();
+    }
+    return !this.serverConnection.flush();
+  }
+
+  /**
+   * Sends the files after the file count, reading them with a FilePrefetcher so that the next
+   * chunks and files are read from disk while the current chunk is being sent.
+   *
+   * @param version protocol version
+   * @param fileCnt number of entries to send
+   * @return true on success or false on error
+   */
+  private boolean sendPrefetchedFiles(int version, int fileCnt) {
+    WritableByteChannel outChannel = this.serverConnection.getWritableChannel();
+    FilePrefetcher prefetcher =
+        new FilePrefetcher(
+            utils,
+            fileCnt,
+            version >= 3,
+            this.serverConnection.getProfile().getChunkSize(),
+            outChannel != null ? ServerConnection.WRITE_BUFFER_SIZE : -1,
+            MAX_FILE_SIZE);
+    try {
+      for (int fileNum = 0; fileNum < fileCnt; fileNum++) {
+        FilePrefetcher.Item header = prefetcher.next();
+        if (header == null || !header.isHeader()) {
+          return false;
+        }
+        long left = header.getSize();
+        try {
+          if (header.getName().isEmpty() || (left < 0 && version != 3)) {
             return false;
           }
-          if (read_sz < 0) {
+          if (sendString(header.getName()) || sendSize(left)) {
             return false;
-          } else if (read_sz == 0) {
+          }
+          if (header.getChannel() != null) {
+            if (transferFileData(header.getChannel(), outChannel, left) != 0) {
+              return false;
+            }
             continue;
           }
-          fileSize -= read_sz;
-          if (this.serverConnection.send(buf, 0, read_sz)) {
-            return false;
+          if (header.getBuffer() != null) {
+            if (this.serverConnection.send(header.getBuffer(), 0, header.getLength())) {
+              return false;
+            }
+            left -= header.getLength();
           }
+        } finally {
+          prefetcher.release(header);
+        }
+        while (left > 0) {
+          FilePrefetcher.Item chunk = prefetcher.next();
+          if (chunk == null) return false;
+          boolean failed =
+              chunk.isHeader()
+                  || this.serverConnection.send(chunk.getBuffer(), 0, chunk.getLength());
+          left -= chunk.getLength();
+          prefetcher.release(chunk);
+          if (failed) return false;
         }
       }
-    } catch (Exception ignored) {
-      return false;
+    } finally {
+      prefetcher.close();
     }
-    return true;
+    return !this.serverConnection.flush();
+  }
+
+  /**
+   * Sends fileSize bytes of file content to server. When both the file and the connection expose
+   * channels and the file is larger than the write buffer of the connection, the data is moved
+   * with FileChannel.transferTo so that the kernel can send it without copying through user space.
+   * Otherwise, the data is copied through a buffer, which lets small files be coalesced with their
+   * headers and with each other.
+   *
+   * @param inStream input stream of the file
+   * @param fileChannel channel of the same file, or null to use the input stream
+   * @param fileSize number of bytes to send
+   * @return number of bytes left unsent because the file ended early, or -1 on error
+   */
+  private long sendFileData(InputStream inStream, FileChannel fileChannel, long fileSize) {
+    WritableByteChannel outChannel = this.serverConnection.getWritableChannel();
+    if (fileChannel != null
+        && outChannel != null
+        && fileSize >= ServerConnection.WRITE_BUFFER_SIZE) {
+      return transferFileData(fileChannel, outChannel, fileSize);
+    }
+    byte[] buf = this.codec.getPayloadBuffer();
+    while (fileSize > 0) {
+      int read_sz = (int) Math.min(fileSize, buf.length);
+      try {
+        read_sz = inStream.read(buf, 0, read_sz);
+      } catch (IOException ex) {
+        return -1;
+      }
+      if (read_sz < 0) {
+        return fileSize;
+      } else if (read_sz == 0) {
+        continue;
+      }
+      fileSize -= read_sz;
+      if (this.serverConnection.send(buf, 0, read_sz)) {
+        return -1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Sends fileSize bytes of a file with FileChannel.transferTo, after flushing the data held back
+   * by the connection.
+   *
+   * @param fileChannel channel of the file, positioned at the data to send
+   * @param outChannel channel of the connection
+   * @param fileSize number of bytes to send
+   * @return number of bytes left unsent because the file ended early, or -1 on error
+   */
+  private long transferFileData(
+      FileChannel fileChannel, WritableByteChannel outChannel, long fileSize) {
+    if (this.serverConnection.flush()) return -1;
+    try {
+      long position = fileChannel.position();
+      while (fileSize > 0) {
+        ChunkEvent event = ChunkEvent.start();
+        long start = System.nanoTime();
+        long sent = fileChannel.transferTo(position, fileSize, outChannel);
+        if (sent <= 0) {
+          return position >= fileChannel.size() ? fileSize : -1;
+        }
+        this.metrics.recordSent(sent, System.nanoTime() - start);
+        if (event != null) event.complete(this.serverConnection.getServerAddress(), true, sent);
+        position += sent;
+        fileSize -= sent;
+      }
+      fileChannel.position(position);
+      return 0;
+    } catch (IOException | RuntimeException ex) {
+      return -1;
+    }
+  }
+
+  /**
+   * Receives fileSize bytes of file content from server and writes them to out, copying the data
+   * through the payload buffer of the codec. Exactly fileSize bytes are consumed from the
+   * connection on success.
+   *
+   * @param out output stream of the destination file
+   * @param fileSize number of bytes to receive
+   * @return false on success or true on error
+   */
+  boolean receiveFileData(OutputStream out, long fileSize) {
+    byte[] buf = this.codec.getPayloadBuffer();
+    while (fileSize > 0) {
+      int read_sz = (int) Math.min(fileSize, buf.length);
+      if (this.serverConnection.receive(buf, 0, read_sz)) {
+        return true;
+      }
+      fileSize -= read_sz;
+      try {
+        out.write(buf, 0, read_sz);
+      } catch (IOException ex) {
+        return true;
+      }
+    }
+    return false;
   }
 
   private boolean selectDisplay(int display) {
     if (sendSize(display)) return true;
-    byte[] status = new byte[1];
-    return (this.serverConnection.receive(status) || status[0] != STATUS_OK);
+    return this.codec.readByte() != STATUS_OK;
   }
 
   /**
@@ -370,16 +492,8 @@ public final class ProtoMethods {
    * @throws IOException on failure
    * @return integer received
    */
-  private long readSize() throws IOException {
-    byte[] data = new byte[8];
-    if (this.serverConnection.receive(data)) {
-      throw new IOException();
-    }
-    long size = 0;
-    for (byte b : data) {
-      size = (size << 8) | (b & 0xFF);
-    }
-    return size;
+  long readSize() throws IOException {
+    return this.codec.readSize();
   }
 
   /**
@@ -388,13 +502,8 @@ public final class ProtoMethods {
    * @param size value to be sent
    * @return false on success or true on error
    */
-  private boolean sendSize(long size) {
-    byte[] data = new byte[8];
-    for (int i = data.length - 1; i >= 0; i--) {
-      data[i] = (byte) (size & 0xFF);
-      size >>= 8;
-    }
-    return this.serverConnection.send(data);
+  boolean sendSize(long size) {
+    return this.codec.sendSize(size);
   }
 
   /**
@@ -404,12 +513,40 @@ public final class ProtoMethods {
    * @return false on success or true on failure
    */
   private boolean methodInit(byte method) {
-    byte[] methodArr = {method};
-    if (this.serverConnection.send(methodArr)) {
+    this.metrics.startOperation(methodName(method));
+    this.methodEvent = new MethodEvent();
+    this.methodEvent.begin();
+    if (this.codec.sendByte(method)) {
+      return true;
+    }
+    if (this.codec.readByte() != STATUS_OK) {
       return true;
     }
-    byte[] status = new byte[1];
-    return (this.serverConnection.receive(status) || status[0] != STATUS_OK);
+    this.metrics.methodAccepted();
+    return false;
+  }
+
+  private static String methodName(byte method) {
+    switch (method) {
+      case GET_TEXT:
+        return "get_text";
+      case SEND_TEXT:
+        return "send_text";
+      case GET_FILE:
+        return "get_files";
+      case SEND_FILE:
+        return "send_files";
+      case GET_IMAGE:
+        return "get_image";
+      case GET_COPIED_IMAGE:
+        return "get_copied_image";
+      case GET_SCREENSHOT:
+        return "get_screenshot";
+      case INFO:
+        return "info";
+      default:
+        return "method_" + method;
+    }
   }
 
   /**
@@ -418,21 +555,8 @@ public final class ProtoMethods {
    * @param maxSize maximum size to read
    * @return read string or null on error
    */
-  private String readString(int maxSize) {
-    long size;
-    try {
-      size = this.readSize();
-    } catch (IOException ignored) {
-      return null;
-    }
-    if (size <= 0 || size > maxSize) {
-      return null;
-    }
-    byte[] data = new byte[(int) size];
-    if (this.serverConnection.receive(data)) {
-      return null;
-    }
-    return new String(data, StandardCharsets.UTF_8);
+  String readString(int maxSize) {
+    return this.codec.readString(maxSize);
   }
 
   /**
@@ -441,17 +565,16 @@ public final class ProtoMethods {
    * @param data String to be sent
    * @return false on success or true on error
    */
-  private boolean sendString(String data) {
-    if (data == null) return true;
-    final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
-    final int len = bytes.length;
-    if (len >= 16777216) return true;
-    if (this.sendSize(len)) return true;
-    return this.serverConnection.send(bytes);
+  boolean sendString(String data) {
+    return this.codec.sendString(data);
   }
 
   /** Close the connection used for communicating with the server */
   public void close() {
+    if (this.methodEvent != null) {
+      this.methodEvent.complete(this.serverConnection.getServerAddress(), this.metrics);
+      this.methodEvent = null;
+    }
     try {
       if (this.serverConnection != null) this.serverConnection.close();
     } catch (Exception ignored) {
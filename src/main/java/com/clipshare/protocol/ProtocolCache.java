@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Remembers the protocol version negotiated with each server for a limited time. */
+final class ProtocolCache {
+
+  private static final long TTL_MS = 600000; // 10 minutes
+  private static final ConcurrentHashMap<InetAddress, Entry> entries = new ConcurrentHashMap<>(4);
+
+  private ProtocolCache() {}
+
+  /**
+   * Gets the protocol version negotiated with the server, if it has not expired.
+   *
+   * @param serverAddress address of the server
+   * @return protocol version or 0 if not known
+   */
+  static byte get(InetAddress serverAddress) {
+    if (serverAddress == null) return 0;
+    Entry entry = entries.get(serverAddress);
+    if (entry == null) return 0;
+    if (System.currentTimeMillis() - entry.timestamp > TTL_MS) {
+      entries.remove(serverAddress, entry);
+      return 0;
+    }
+    return entry.version;
+  }
+
+  static void put(InetAddress serverAddress, byte version) {
+    if (serverAddress == null) return;
+    entries.put(serverAddress, new Entry(version, System.currentTimeMillis()));
+  }
+
+  static void remove(InetAddress serverAddress) {
+    if (serverAddress == null) return;
+    entries.remove(serverAddress);
+  }
+
+  private static final class Entry {
+    private final byte version;
+    private final long timestamp;
+
+    private Entry(byte version, long timestamp) {
+      this.version = version;
+      this.timestamp = timestamp;
+    }
+  }
+}
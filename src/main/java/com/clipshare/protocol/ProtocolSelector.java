@@ -24,8 +24,10 @@
 
 package com.clipshare.protocol;
 
+import com.clipshare.metrics.NegotiationEvent;
 import com.clipshare.netConnection.ServerConnection;
 import com.clipshare.platformUtils.Utils;
+import java.net.InetAddress;
 import java.net.ProtocolException;
 
 public class ProtocolSelector {
@@ -33,24 +35,46 @@ public class ProtocolSelector {
   static final byte PROTOCOL_SUPPORTED = 1;
   static final byte PROTOCOL_OBSOLETE = 2;
   static final byte PROTOCOL_UNKNOWN = 3;
-  private static final byte PROTO_MIN = 1;
+  static final byte PROTO_MIN = 1;
   public static final byte PROTO_MAX = 3;
 
   private ProtocolSelector() {}
 
+  /**
+   * Negotiates the protocol version with the server. If a version was recently negotiated with the
+   * same server, that version is proposed directly instead of the latest one, which avoids the
+   * downgrade exchange with older servers. The full negotiation is done again if the server rejects
+   * the cached version.
+   *
+   * @param connection Server connection
+   * @param utils Utils instance used by the protocol methods
+   * @return Proto for the negotiated version or null on error
+   * @throws ProtocolException if there is no protocol version supported by both sides
+   */
   public static Proto getProto(ServerConnection connection, Utils utils) throws ProtocolException {
     if (connection == null) return null;
-    byte[] proto_v = {PROTO_MAX};
+    NegotiationEvent event = new NegotiationEvent();
+    event.begin();
+    long start = System.nanoTime();
+    InetAddress serverAddress = connection.getServerAddress();
+    byte cachedProto = ProtocolCache.get(serverAddress);
+    byte proposedProto = cachedProto > 0 ? cachedProto : PROTO_MAX;
+    byte[] proto_v = {proposedProto};
     if (connection.send(proto_v)) {
       return null;
     }
     if (connection.receive(proto_v)) {
       return null;
     }
-    int selectedProto = PROTO_MAX;
+    int selectedProto = proposedProto;
     if (proto_v[0] == ProtocolSelector.PROTOCOL_OBSOLETE) {
+      ProtocolCache.remove(serverAddress);
+      if (cachedProto > 0 && cachedProto < PROTO_MAX) {
+        throw new ProtocolException("Cached protocol is obsolete");
+      }
       throw new ProtocolException("Obsolete client");
     } else if (proto_v[0] == ProtocolSelector.PROTOCOL_UNKNOWN) {
+      ProtocolCache.remove(serverAddress);
       byte[] serverProto = new byte[1];
       if (connection.receive(serverProto)) {
         return null;
@@ -68,16 +92,48 @@ public class ProtocolSelector {
     } else if (proto_v[0] != ProtocolSelector.PROTOCOL_SUPPORTED) {
       return null;
     }
+    Proto proto;
     switch (selectedProto) {
       case 1:
-        return new Proto_v1(connection, utils);
+        proto = new Proto_v1(connection, utils);
+        break;
       case 2:
-        return new Proto_v2(connection, utils);
+        proto = new Proto_v2(connection, utils);
+        break;
       case 3:
-        return new Proto_v3(connection, utils);
+        proto = new Proto_v3(connection, utils);
+        break;
       default:
         throw new ProtocolException("Unknown protocol");
     }
+    ProtocolCache.put(serverAddress, (byte) selectedProto);
+    connection.getMetrics().recordNegotiation(System.nanoTime() - start);
+    event.complete(serverAddress, proposedProto, selectedProto);
+    return proto;
+  }
+
+  /**
+   * Gets the protocol version recently negotiated with the server without connecting to it. This
+   * can be used to check whether the server supports a method before opening a connection.
+   *
+   * @param serverAddress address of the server
+   * @return protocol version or 0 if not known
+   */
+  public static int getCachedVersion(InetAddress serverAddress) {
+    return ProtocolCache.get(serverAddress);
+  }
+
+  /**
+   * Remembers a protocol version negotiated with the server in an earlier session, so that the next
+   * connection proposes it directly. Versions outside the supported range are ignored.
+   *
+   * @param serverAddress address of the server
+   * @param version protocol version
+   */
+  public static void setCachedVersion(InetAddress serverAddress, int version) {
+    if (version < PROTO_MIN || version > PROTO_MAX) return;
+    if (ProtocolCache.get(serverAddress) != 0) return;
+    ProtocolCache.put(serverAddress, (byte) version);
   }
 
   /**
@@ -0,0 +1,373 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking check of whether a host runs a ClipShare server. The probe proposes the lowest
+ * protocol version and sends the INFO method in the same write, which is safe because a server
+ * never answers the lowest version with the unknown-version reply. If the server rejects that
+ * version as obsolete, the probe reconnects once and does the normal negotiation. Any response
+ * byte that a ClipShare server would not send fails the probe at once.
+ *
+ * <p>The probe is driven by a selector owned by the caller, who must call {@link #handle()} when
+ * its key is selected and {@link #close()} once the deadline has passed. The socket is always
+ * closed when the probe is done.
+ */
+public final class ServerProbe {
+
+  private static final byte[] SERVER_NAME = "clip_share".getBytes(StandardCharsets.UTF_8);
+  private static final int READ_VERSION = 0;
+  private static final int READ_SERVER_MAX = 1;
+  private static final int READ_STATUS = 2;
+  private static final int READ_LENGTH = 3;
+  private static final int READ_NAME = 4;
+
+  private final InetAddress address;
+  private final int port;
+  private final long deadline;
+  private final ByteBuffer out;
+  private final ByteBuffer in;
+  private Selector selector;
+  private SocketChannel channel;
+  private SelectionKey key;
+  private boolean pipelined;
+  private int step;
+  private long connectStart;
+  private long rttNanos;
+  private boolean done;
+  private boolean server;
+  private boolean refused;
+
+  /**
+   * Creates a probe. Nothing is sent until {@link #start(Selector)} is called.
+   *
+   * @param address address of the host
+   * @param port port of the server
+   * @param deadline System.nanoTime() value after which the probe should be closed
+   */
+  public ServerProbe(InetAddress address, int port, long deadline) {
+    this.address = address;
+    this.port = port;
+    this.deadline = deadline;
+    this.out = ByteBuffer.allocate(2);
+    this.in = ByteBuffer.allocate(Math.max(Long.BYTES, SERVER_NAME.length));
+    this.rttNanos = -1;
+  }
+
+  /**
+   * Checks whether a host runs a ClipShare server, blocking until the probe completes or the
+   * timeout elapses.
+   *
+   * @param address address of the host
+   * @param port port of the server
+   * @param timeoutMs timeout for the whole probe in milliseconds
+   * @return TCP connect time to the server in nanoseconds, or -1 if it is not a ClipShare server
+   */
+  public static long probe(InetAddress address, int port, int timeoutMs) {
+    ServerProbe probe = probeAll(Collections.singletonList(address), port, timeoutMs).get(0);
+    return probe.isServer() ? probe.getRttNanos() : -1;
+  }
+
+  /**
+   * Probes several hosts in parallel on one selector, blocking until all probes complete or the
+   * timeout elapses.
+   *
+   * @param addresses addresses of the hosts
+   * @param port port of the servers
+   * @param timeoutMs timeout for the whole probe in milliseconds
+   * @return completed probes in the order of the addresses
+   */
+  public static List<ServerProbe> probeAll(List<InetAddress> addresses, int port, int timeoutMs) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    List<ServerProbe> probes = new ArrayList<>(addresses.size());
+    for (InetAddress address : addresses) {
+      probes.add(new ServerProbe(address, port, deadline));
+    }
+    try (Selector selector = Selector.open()) {
+      int active = 0;
+      for (ServerProbe probe : probes) {
+        probe.start(selector);
+        if (!probe.isDone()) active++;
+      }
+      while (active > 0 && !Thread.currentThread().isInterrupted()) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) break;
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          ServerProbe probe = (ServerProbe) keys.next().attachment();
+          keys.remove();
+          if (probe.isDone()) continue;
+          probe.handle();
+          if (probe.isDone()) active--;
+        }
+      }
+    } catch (IOException ignored) {
+    } finally {
+      for (ServerProbe probe : probes) {
+        probe.close();
+      }
+    }
+    return probes;
+  }
+
+  /**
+   * Starts connecting to the host and registers the probe with the selector.
+   *
+   * @param selector selector used to drive the probe
+   * @throws IOException if a socket channel could not be opened
+   */
+  public void start(Selector selector) throws IOException {
+    this.selector = selector;
+    this.pipelined = true;
+    this.connect();
+  }
+
+  private void connect() throws IOException {
+    this.channel = SocketChannel.open();
+    try {
+      this.channel.configureBlocking(false);
+      this.connectStart = System.nanoTime();
+      this.key = this.channel.register(this.selector, SelectionKey.OP_CONNECT, this);
+      if (this.channel.connect(new InetSocketAddress(this.address, this.port))) {
+        this.connected();
+      }
+    } catch (IOException | RuntimeException ignored) {
+      this.finish(false);
+    }
+  }
+
+  /** Continues the probe after its selection key was selected. */
+  public void handle() {
+    if (this.done) return;
+    try {
+      if (this.key.isConnectable()) {
+        this.finishConnect();
+      } else if (this.key.isWritable()) {
+        this.write();
+      } else if (this.key.isReadable()) {
+        this.read();
+      }
+    } catch (IOException | RuntimeException ignored) {
+      this.finish(false);
+    }
+  }
+
+  private void finishConnect() throws IOException {
+    boolean connected;
+    try {
+      connected = this.channel.finishConnect();
+    } catch (ConnectException ex) {
+      // The host answered with a reset, which still gives the round trip time
+      if (this.rttNanos < 0) {
+        this.rttNanos = System.nanoTime() - this.connectStart;
+        this.refused = true;
+      }
+      throw ex;
+    }
+    if (connected) this.connected();
+  }
+
+  private void connected() throws IOException {
+    if (this.rttNanos < 0) this.rttNanos = System.nanoTime() - this.connectStart;
+    this.expect(READ_VERSION, 1);
+    if (this.pipelined) {
+      this.send(ProtocolSelector.PROTO_MIN, ProtoMethods.INFO);
+    } else {
+      this.send(ProtocolSelector.PROTO_MAX);
+    }
+  }
+
+  private void send(byte... data) throws IOException {
+    this.out.clear();
+    this.out.put(data);
+    this.out.flip();
+    this.write();
+  }
+
+  private void write() throws IOException {
+    this.channel.write(this.out);
+    this.key.interestOps(this.out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+  }
+
+  private void expect(int nextStep, int length) {
+    this.step = nextStep;
+    this.in.clear();
+    this.in.limit(length);
+  }
+
+  private void read() throws IOException {
+    while (!this.done) {
+      if (this.channel.read(this.in) < 0) {
+        this.finish(false);
+        return;
+      }
+      if (this.in.hasRemaining() || !this.process()) return;
+    }
+  }
+
+  /**
+   * Processes a complete response field.
+   *
+   * @return true if the next field should be read right away or false to wait for the selector
+   * @throws IOException on error
+   */
+  private boolean process() throws IOException {
+    switch (this.step) {
+      case READ_VERSION:
+        return this.processVersion(this.in.get(0));
+      case READ_SERVER_MAX:
+        byte serverMax = this.in.get(0);
+        if (serverMax < ProtocolSelector.PROTO_MIN) {
+          this.finish(false);
+          return false;
+        }
+        this.expect(READ_STATUS, 1);
+        this.send(serverMax, ProtoMethods.INFO);
+        return false;
+      case READ_STATUS:
+        if (this.in.get(0) != ProtoMethods.STATUS_OK) {
+          this.finish(false);
+          return false;
+        }
+        this.expect(READ_LENGTH, Long.BYTES);
+        return true;
+      case READ_LENGTH:
+        if (this.in.getLong(0) != SERVER_NAME.length) {
+          this.finish(false);
+          return false;
+        }
+        this.expect(READ_NAME, SERVER_NAME.length);
+        return true;
+      case READ_NAME:
+        boolean matches = true;
+        for (int i = 0; i < SERVER_NAME.length; i++) {
+          if (this.in.get(i) != SERVER_NAME[i]) matches = false;
+        }
+        this.finish(matches);
+        return false;
+      default:
+        this.finish(false);
+        return false;
+    }
+  }
+
+  private boolean processVersion(byte response) throws IOException {
+    if (response == ProtocolSelector.PROTOCOL_SUPPORTED) {
+      this.expect(READ_STATUS, 1);
+      if (this.pipelined) return true;
+      this.send(ProtoMethods.INFO);
+      return false;
+    }
+    if (response == ProtocolSelector.PROTOCOL_OBSOLETE && this.pipelined) {
+      // The server does not support the lowest version. Negotiate normally on a new connection.
+      closeChannel(this.channel);
+      this.pipelined = false;
+      this.connect();
+      return false;
+    }
+    if (response == ProtocolSelector.PROTOCOL_UNKNOWN && !this.pipelined) {
+      this.expect(READ_SERVER_MAX, 1);
+      return true;
+    }
+    this.finish(false);
+    return false;
+  }
+
+  private void finish(boolean isServer) {
+    this.done = true;
+    this.server = isServer;
+    closeChannel(this.channel);
+  }
+
+  private static void closeChannel(SocketChannel channel) {
+    if (channel == null) return;
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  /** Stops the probe if it has not completed and closes its socket. */
+  public void close() {
+    if (!this.done) this.finish(false);
+  }
+
+  public InetAddress getAddress() {
+    return this.address;
+  }
+
+  public long getDeadline() {
+    return this.deadline;
+  }
+
+  public boolean isDone() {
+    return this.done;
+  }
+
+  /**
+   * Checks whether the host was identified as a ClipShare server.
+   *
+   * @return true if the probe completed and the host is a server
+   */
+  public boolean isServer() {
+    return this.server;
+  }
+
+  /**
+   * Checks whether the host refused the connection, which means that it is up but no server is
+   * listening on the port.
+   *
+   * @return true if the connection was refused
+   */
+  public boolean isRefused() {
+    return this.refused;
+  }
+
+  /**
+   * Gets the time taken to establish the TCP connection or to get it refused, which is one round
+   * trip to the host.
+   *
+   * @return connect time in nanoseconds or -1 if the host did not answer
+   */
+  public long getRttNanos() {
+    return this.rttNanos;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class KnownServersTest {
+
+  private static final long DAY_MS = 24L * 3600 * 1000;
+
+  @TempDir Path tempDir;
+
+  @Test
+  void loadDropsServersThatFailedThreeTimes() throws IOException {
+    long now = System.currentTimeMillis();
+    File file =
+        this.write(
+            line("eth0 10.0.0.0/24", "10.0.0.2", now - 1000, 2),
+            line("eth1 10.0.1.0/24", "10.0.1.2", now - 2000, 3),
+            line("eth2 10.0.2.0/24", "10.0.2.2", now - 3000, 4));
+    assertEquals(addresses("10.0.0.2"), KnownServers.load(file).getAddresses());
+  }
+
+  @Test
+  void loadDropsServersNotSeenFor30Days() throws IOException {
+    long now = System.currentTimeMillis();
+    File file =
+        this.write(
+            line("eth0 10.0.0.0/24", "10.0.0.2", now - 29 * DAY_MS, 0),
+            line("eth1 10.0.1.0/24", "10.0.1.2", now - 31 * DAY_MS, 0));
+    assertEquals(addresses("10.0.0.2"), KnownServers.load(file).getAddresses());
+  }
+
+  @Test
+  void loadSkipsInvalidLines() throws IOException {
+    long now = System.currentTimeMillis();
+    File file =
+        this.write(
+            "eth0 10.0.0.0/24\t10.0.0.2\t3",
+            "eth1 10.0.1.0/24\t10.0.1.2\tthree\t" + now + "\t0\t1200\t300\t-1\t500",
+            "eth3 10.0.3.0/24\t10.0.3.2\t3\t" + now + "\t0\t1200\t300\t-1\t0",
+            line("eth2 10.0.2.0/24", "10.0.2.2", now, 0));
+    assertEquals(addresses("10.0.2.2"), KnownServers.load(file).getAddresses());
+  }
+
+  @Test
+  void saveAndLoadRoundTrip() throws IOException {
+    long now = System.currentTimeMillis();
+    String recent = line("eth0 192.168.1.0/24", "192.168.1.20", now - 1000, 1);
+    String older = line("wlan0 10.0.0.0/16", "10.0.3.4", now - 5 * DAY_MS, 0);
+    String expired = line("eth1 10.1.0.0/24", "10.1.0.9", now - 40 * DAY_MS, 0);
+    File file = this.write(older, expired, recent);
+    KnownServers.load(file).save();
+    assertEquals(Arrays.asList(older, recent), Files.readAllLines(file.toPath()));
+    assertEquals(addresses("192.168.1.20", "10.0.3.4"), KnownServers.load(file).getAddresses());
+  }
+
+  @Test
+  void loadOfMissingFileIsEmpty() {
+    File file = this.tempDir.resolve("missing").toFile();
+    assertTrue(KnownServers.load(file).getAddresses().isEmpty());
+  }
+
+  private File write(String... lines) throws IOException {
+    File file = this.tempDir.resolve("servers").toFile();
+    Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    return file;
+  }
+
+  private static String line(String network, String address, long lastSeen, int failures) {
+    return network + '\t' + address + "\t3\t" + lastSeen + '\t' + failures + "\t1200\t300\t-1\t500";
+  }
+
+  private static List<InetAddress> addresses(String... addresses) throws IOException {
+    InetAddress[] list = new InetAddress[addresses.length];
+    for (int i = 0; i < addresses.length; i++) {
+      list[i] = InetAddress.getByName(addresses[i]);
+    }
+    return Arrays.asList(list);
+  }
+}
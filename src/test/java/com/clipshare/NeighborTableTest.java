@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NeighborTableTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  void readArpTableSkipsIncompleteEntries() throws IOException {
+    File arp = this.tempDir.resolve("arp").toFile();
+    List<String> lines =
+        Arrays.asList(
+            "IP address       HW type     Flags       HW address            Mask     Device",
+            "192.168.1.5      0x1         0x2         aa:bb:cc:dd:ee:01     *        wlan0",
+            "192.168.1.9      0x1         0x0         00:00:00:00:00:00     *        wlan0",
+            "10.0.0.7         0x1         0x6         aa:bb:cc:dd:ee:02     *        eth0",
+            "fe80::1          0x1         0x2         aa:bb:cc:dd:ee:03     *        eth0",
+            "");
+    Files.write(arp.toPath(), lines, StandardCharsets.UTF_8);
+    assertEquals(
+        Arrays.asList(InetAddress.getByName("192.168.1.5"), InetAddress.getByName("10.0.0.7")),
+        NeighborTable.readArpTable(arp));
+  }
+
+  @Test
+  void readArpTableOfMissingFileIsEmpty() {
+    File arp = this.tempDir.resolve("missing").toFile();
+    assertTrue(NeighborTable.readArpTable(arp).isEmpty());
+  }
+
+  @Test
+  void readArpTableWithOnlyHeaderIsEmpty() throws IOException {
+    File arp = this.tempDir.resolve("arp").toFile();
+    Files.write(
+        arp.toPath(),
+        Arrays.asList("IP address       HW type     Flags       HW address            Mask"),
+        StandardCharsets.UTF_8);
+    assertTrue(NeighborTable.readArpTable(arp).isEmpty());
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class ProbeConcurrencyControllerTest {
+
+  private static final long RTT_NANOS = 1000000;
+
+  @Test
+  void limitDoublesWhileHostsAnswer() {
+    ProbeConcurrencyController controller = new ProbeConcurrencyController(1024, true);
+    answerEpoch(controller);
+    assertEquals(512, controller.getLimit());
+    answerEpoch(controller);
+    assertEquals(1024, controller.getLimit());
+  }
+
+  @Test
+  void limitStaysWhenNoHostAnswers() {
+    ProbeConcurrencyController controller = new ProbeConcurrencyController(1024, true);
+    for (int epoch = 0; epoch < 10; epoch++) {
+      for (int i = controller.getLimit(); i > 0; i--) {
+        controller.onTimeout();
+      }
+    }
+    assertEquals(256, controller.getLimit());
+  }
+
+  @Test
+  void limitIsCappedAfterResourceError() {
+    ProbeConcurrencyController controller = new ProbeConcurrencyController(1024, true);
+    controller.onResourceError(100);
+    for (int epoch = 0; epoch < 10; epoch++) {
+      answerEpoch(controller);
+    }
+    assertEquals(100, controller.getLimit());
+  }
+
+  @Test
+  void fixedLimitNeverChanges() {
+    ProbeConcurrencyController controller = new ProbeConcurrencyController(64, false);
+    answerEpoch(controller);
+    for (int i = 0; i < 64; i++) {
+      controller.onTimeout();
+    }
+    assertEquals(64, controller.getLimit());
+  }
+
+  private static void answerEpoch(ProbeConcurrencyController controller) {
+    for (int i = controller.getLimit(); i > 0; i--) {
+      controller.onAnswered(RTT_NANOS);
+    }
+  }
+}
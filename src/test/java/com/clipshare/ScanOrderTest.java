@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import org.junit.jupiter.api.Test;
+
+class ScanOrderTest {
+
+  private static final int NETWORK = address("192.168.1.0");
+
+  @Test
+  void byLikelihoodProbesPreferredThenNeighborsThenRing() {
+    List<InetAddress> preferred = inet("192.168.1.6");
+    NeighborTable neighbors = () -> inet("192.168.1.5");
+    PrimitiveIterator.OfInt order =
+        ScanOrder.byLikelihood(preferred, neighbors)
+            .addresses(NETWORK, (short) 29, address("192.168.1.3"));
+    assertEquals(hosts(6, 5, 4, 2, 1), drain(order));
+  }
+
+  @Test
+  void byLikelihoodReturnsEachAddressOnce() {
+    List<InetAddress> preferred = inet("192.168.1.6", "192.168.1.6", "192.168.1.4");
+    NeighborTable neighbors = () -> inet("192.168.1.4", "192.168.1.6", "192.168.1.2");
+    PrimitiveIterator.OfInt order =
+        ScanOrder.byLikelihood(preferred, neighbors)
+            .addresses(NETWORK, (short) 29, address("192.168.1.3"));
+    assertEquals(hosts(6, 4, 2, 5, 1), drain(order));
+  }
+
+  @Test
+  void byLikelihoodSkipsOwnNetworkBroadcastAndForeignAddresses() {
+    List<InetAddress> preferred = inet("192.168.1.3", "192.168.1.0", "10.0.0.1");
+    NeighborTable neighbors = () -> inet("192.168.1.7", "192.168.1.8");
+    PrimitiveIterator.OfInt order =
+        ScanOrder.byLikelihood(preferred, neighbors)
+            .addresses(NETWORK, (short) 29, address("192.168.1.3"));
+    assertEquals(hosts(4, 2, 5, 1, 6), drain(order));
+  }
+
+  @Test
+  void numericCoversEveryHostOfTheSubnet() {
+    List<Integer> order =
+        drain(ScanOrder.numeric().addresses(NETWORK, (short) 24, address("192.168.1.100")));
+    assertEquals(253, order.size());
+    assertEquals(NETWORK + 1, (int) order.get(0));
+    assertEquals(NETWORK + 254, (int) order.get(order.size() - 1));
+    assertFalse(order.contains(NETWORK));
+    assertFalse(order.contains(NETWORK + 100));
+    assertFalse(order.contains(NETWORK + 255));
+    for (int i = 1; i < order.size(); i++) {
+      assertTrue(order.get(i - 1) < order.get(i));
+    }
+  }
+
+  @Test
+  void pointToPointAndHostPrefixesHaveNoAddresses() {
+    NeighborTable neighbors = () -> inet("192.168.1.1");
+    List<InetAddress> preferred = inet("192.168.1.0");
+    for (short prefix = 31; prefix <= 32; prefix++) {
+      assertEquals(
+          Collections.emptyList(), drain(ScanOrder.numeric().addresses(NETWORK, prefix, NETWORK)));
+      assertEquals(
+          Collections.emptyList(),
+          drain(ScanOrder.byLikelihood(preferred, neighbors).addresses(NETWORK, prefix, NETWORK)));
+    }
+  }
+
+  private static int address(String address) {
+    return ScanCandidates.toInt(inet(address).get(0));
+  }
+
+  private static List<InetAddress> inet(String... addresses) {
+    List<InetAddress> list = new ArrayList<>(addresses.length);
+    try {
+      for (String address : addresses) {
+        list.add(InetAddress.getByName(address));
+      }
+    } catch (UnknownHostException ex) {
+      throw new IllegalArgumentException(ex);
+    }
+    return list;
+  }
+
+  private static List<Integer> hosts(Integer... hosts) {
+    List<Integer> list = new ArrayList<>(Arrays.asList(hosts));
+    list.replaceAll(host -> NETWORK + host);
+    return list;
+  }
+
+  private static List<Integer> drain(PrimitiveIterator.OfInt addresses) {
+    List<Integer> list = new ArrayList<>();
+    addresses.forEachRemaining((int address) -> list.add(address));
+    return list;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ServerFinderTest {
+
+  private static final int SCANS = 1000;
+  private static final int WARMUP_SCANS = 100;
+  private static final int SAMPLE_SCANS = 100;
+  private static final long RESULT_TIMEOUT_MS = 5000;
+  private static final int POOL_THREADS = 8;
+
+  private DatagramSocket requests;
+  private DatagramSocket replies;
+  private Thread responder;
+
+  @BeforeEach
+  void startResponder() throws IOException {
+    this.requests = new DatagramSocket(new InetSocketAddress(0));
+    // Replies come from loopback, since replies from an address of this host are ignored
+    this.replies = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    this.responder = new Thread(this::respond, "udp-responder");
+    this.responder.setDaemon(true);
+    this.responder.start();
+  }
+
+  @AfterEach
+  void stopResponder() throws InterruptedException {
+    this.requests.close();
+    this.replies.close();
+    this.responder.join(1000);
+  }
+
+  @Test
+  void backToBackScansKeepThreadsAndTimeToResultFlat() throws InterruptedException {
+    assumeTrue(hasBroadcastNetwork(), "no network to broadcast to");
+    long[] resultNanos = new long[SCANS];
+    int baseThreads = Thread.activeCount();
+    int maxThreads = 0;
+    try (ServerFinder finder = new ServerFinder(freePort(), this.requests.getLocalPort())) {
+      for (int i = 0; i < SCANS; i++) {
+        CountDownLatch found = new CountDownLatch(1);
+        long start = System.nanoTime();
+        Discovery discovery =
+            finder.discover(
+                RESULT_TIMEOUT_MS, Collections.emptyList(), server -> found.countDown());
+        assertTrue(found.await(RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS), "scan " + i);
+        resultNanos[i] = System.nanoTime() - start;
+        discovery.cancel();
+        assertTrue(discovery.await(RESULT_TIMEOUT_MS), "scan " + i + " did not stop");
+        maxThreads = Math.max(maxThreads, Thread.activeCount());
+      }
+    }
+    assertTrue(
+        maxThreads <= baseThreads + POOL_THREADS,
+        "threads grew from " + baseThreads + " to " + maxThreads);
+    long early = median(resultNanos, WARMUP_SCANS);
+    long late = median(resultNanos, SCANS - SAMPLE_SCANS);
+    assertTrue(
+        late <= 2 * early + TimeUnit.MILLISECONDS.toNanos(5),
+        "time to result grew from " + early / 1000 + " us to " + late / 1000 + " us");
+  }
+
+  private void respond() {
+    byte[] buf = new byte[16];
+    byte[] reply = "clip_share".getBytes(StandardCharsets.UTF_8);
+    try {
+      while (true) {
+        DatagramPacket request = new DatagramPacket(buf, buf.length);
+        this.requests.receive(request);
+        this.replies.send(new DatagramPacket(reply, reply.length, request.getSocketAddress()));
+      }
+    } catch (IOException ignored) {
+    }
+  }
+
+  private static boolean hasBroadcastNetwork() {
+    try {
+      for (NetworkInterface netIF : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+        if (netIF.isLoopback() || !netIF.isUp() || netIF.isVirtual()) continue;
+        for (InterfaceAddress intAddress : netIF.getInterfaceAddresses()) {
+          if (intAddress.getBroadcast() instanceof Inet4Address) return true;
+        }
+      }
+    } catch (SocketException ignored) {
+    }
+    return false;
+  }
+
+  /** Gets a TCP port with no listener, so that the subnet scans find no server. */
+  private static int freePort() {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    } catch (IOException ignored) {
+      return 1;
+    }
+  }
+
+  private static long median(long[] values, int from) {
+    long[] sample = Arrays.copyOfRange(values, from, from + SAMPLE_SCANS);
+    Arrays.sort(sample);
+    return sample[SAMPLE_SCANS / 2];
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.netConnection;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ChannelConnectionTest {
+
+  @Test
+  void headersAfterFlushAreCoalesced() throws Exception {
+    byte[] name = new byte[20];
+    byte[] large = new byte[200000];
+    new Random(1).nextBytes(large);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      Thread reader = new Thread(() -> readAll(server, received));
+      reader.start();
+      ChannelConnection connection =
+          new ChannelConnection(InetAddress.getLoopbackAddress(), server.getLocalPort());
+      try {
+        // First turn: method byte and size
+        assertFalse(connection.send(header(expected, 1)));
+        assertFalse(connection.send(header(expected, 8)));
+        assertEquals(0, connection.getMetrics().getChunks());
+        assertFalse(connection.flush());
+        assertEquals(1, connection.getMetrics().getChunks());
+
+        // First message after a flush: method byte, size and name go out in one write
+        assertFalse(connection.send(header(expected, 1)));
+        assertFalse(connection.send(header(expected, 8)));
+        assertFalse(connection.send(name, 0, name.length));
+        expected.write(name);
+        assertEquals(1, connection.getMetrics().getChunks());
+        assertFalse(connection.flush());
+        assertEquals(2, connection.getMetrics().getChunks());
+
+        // A buffer larger than the space left is written together with the collected header
+        assertFalse(connection.send(header(expected, 8)));
+        assertFalse(connection.send(ByteBuffer.wrap(large)));
+        expected.write(large);
+        assertEquals(3, connection.getMetrics().getChunks());
+        assertFalse(connection.flush());
+        assertEquals(3, connection.getMetrics().getChunks());
+      } finally {
+        connection.close();
+      }
+      reader.join(10000);
+      assertArrayEquals(expected.toByteArray(), received.toByteArray());
+    }
+  }
+
+  private static ByteBuffer header(ByteArrayOutputStream expected, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (expected.size() + i);
+    }
+    expected.write(bytes, 0, length);
+    return ByteBuffer.wrap(bytes);
+  }
+
+  private static void readAll(ServerSocket server, ByteArrayOutputStream received) {
+    try (Socket client = server.accept();
+        InputStream in = client.getInputStream()) {
+      byte[] buf = new byte[8192];
+      int read;
+      while ((read = in.read(buf)) >= 0) {
+        received.write(buf, 0, read);
+      }
+    } catch (IOException ignored) {
+    }
+  }
+}
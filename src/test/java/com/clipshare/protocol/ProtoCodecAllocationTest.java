@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 H. Thevindu J. Wijesekera
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.clipshare.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.clipshare.netConnection.ServerConnection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures the bytes allocated per file by the codec in the loops that send and receive files,
+ * with the allocation counter of the current thread. The connection is an in-memory stand-in that
+ * replays the same file record, so only the codec and the connection base class are measured.
+ */
+class ProtoCodecAllocationTest {
+
+  private static final int FILES = 20000;
+  private static final int FILE_SIZE = 4096;
+  private static final String NAME = "photos/2024/IMG_0001.jpg";
+
+  private String lastName;
+
+  @Test
+  void sendLoopAllocatesNothingPerFile() {
+    ServerConnection connection = new LoopConnection(new byte[1]);
+    ProtoCodec codec = new ProtoCodec(connection);
+    this.sendFiles(connection, codec, FILES);
+    long start = allocatedBytes();
+    this.sendFiles(connection, codec, FILES);
+    long allocated = allocatedBytes() - start;
+    assertEquals(0, allocated / FILES, "bytes allocated per file");
+  }
+
+  @Test
+  void receiveLoopAllocatesOnlyTheNames() throws IOException {
+    byte[] name = NAME.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(2 * Long.BYTES + name.length + FILE_SIZE);
+    record.putLong(name.length).put(name).putLong(FILE_SIZE);
+    ServerConnection connection = new LoopConnection(record.array());
+    ProtoCodec codec = new ProtoCodec(connection);
+    this.receiveFiles(connection, codec, FILES);
+    this.decodeNames(name, FILES);
+    long start = allocatedBytes();
+    this.receiveFiles(connection, codec, FILES);
+    long allocated = allocatedBytes() - start;
+    start = allocatedBytes();
+    this.decodeNames(name, FILES);
+    long names = allocatedBytes() - start;
+    assertTrue(
+        allocated / FILES <= names / FILES,
+        "allocated " + allocated / FILES + " bytes per file, names take " + names / FILES);
+  }
+
+  private void sendFiles(ServerConnection connection, ProtoCodec codec, int count) {
+    byte[] payload = codec.getPayloadBuffer();
+    for (int i = 0; i < count; i++) {
+      assertFalse(codec.sendString(NAME));
+      assertFalse(codec.sendSize(FILE_SIZE));
+      assertFalse(connection.send(payload, 0, FILE_SIZE));
+    }
+  }
+
+  private void receiveFiles(ServerConnection connection, ProtoCodec codec, int count)
+      throws IOException {
+    byte[] payload = codec.getPayloadBuffer();
+    for (int i = 0; i < count; i++) {
+      this.lastName = codec.readString(NAME.length() * 4);
+      assertEquals(NAME.length(), this.lastName.length());
+      assertEquals(FILE_SIZE, codec.readSize());
+      assertFalse(connection.receive(payload, 0, FILE_SIZE));
+    }
+  }
+
+  private void decodeNames(byte[] name, int count) {
+    for (int i = 0; i < count; i++) {
+      this.lastName = new String(name, 0, name.length, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** Connection that replays a record from memory and discards the data sent. */
+  private static final class LoopConnection extends ServerConnection {
+
+    private LoopConnection(byte[] record) {
+      this.inStream = new LoopInputStream(record);
+      this.outStream = OutputStream.nullOutputStream();
+    }
+  }
+
+  private static final class LoopInputStream extends InputStream {
+    private final byte[] data;
+    private int position;
+
+    private LoopInputStream(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public int read() {
+      int value = this.data[this.position] & 0xff;
+      this.position = (this.position + 1) % this.data.length;
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      int count = Math.min(length, this.data.length - this.position);
+      System.arraycopy(this.data, this.position, buffer, offset, count);
+      this.position = (this.position + count) % this.data.length;
+      return count;
+    }
+  }
+}